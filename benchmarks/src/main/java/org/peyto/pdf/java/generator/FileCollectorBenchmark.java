@@ -0,0 +1,25 @@
+package org.peyto.pdf.java.generator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.peyto.pdf.java.generator.entity.JPackage;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileCollectorBenchmark {
+
+    @Benchmark
+    public JPackage collectHTMLFiles(SyntheticExportState state) {
+        return FileCollector.collectHTMLFiles(state.exportFolder.toString());
+    }
+}
@@ -0,0 +1,45 @@
+package org.peyto.pdf.java.generator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.peyto.pdf.java.generator.entity.JavaProject;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HtmlTransformerBenchmark {
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private JavaProject javaProject;
+    private ConversionOptions options;
+
+    @Setup(Level.Trial)
+    public void scan(SyntheticExportState state) {
+        javaProject = new JavaProject(FileCollector.collectHTMLFiles(state.exportFolder.toString()));
+        options = new ConversionOptions();
+        options.setThreads(threads);
+    }
+
+    @Benchmark
+    public OutputDocument processHTMLFiles() throws IOException {
+        return HtmlTransformer.processHTMLFiles(javaProject, options);
+    }
+}
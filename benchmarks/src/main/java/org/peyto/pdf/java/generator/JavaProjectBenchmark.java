@@ -0,0 +1,52 @@
+package org.peyto.pdf.java.generator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.peyto.pdf.java.generator.entity.HtmlFileSupplier;
+import org.peyto.pdf.java.generator.entity.JPackage;
+import org.peyto.pdf.java.generator.entity.JavaProject;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JavaProjectBenchmark {
+
+    private JPackage rootPackage;
+    private JavaProject javaProject;
+
+    @Setup(Level.Trial)
+    public void scan(SyntheticExportState state) {
+        rootPackage = FileCollector.collectHTMLFiles(state.exportFolder.toString());
+        javaProject = new JavaProject(rootPackage);
+    }
+
+    @Benchmark
+    public JavaProject construct() {
+        return new JavaProject(rootPackage);
+    }
+
+    @Benchmark
+    public List<HtmlFileSupplier> getOrderedNodes() {
+        return javaProject.getOrderedNodes();
+    }
+
+    @Benchmark
+    public int countNodes() {
+        return javaProject.getNumberOfClasses() + javaProject.getNumberOfPackages();
+    }
+}
@@ -0,0 +1,58 @@
+package org.peyto.pdf.java.generator;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.peyto.pdf.java.generator.entity.HtmlFileSupplier;
+import org.peyto.pdf.java.generator.entity.JPackage;
+import org.peyto.pdf.java.generator.entity.JavaProject;
+import org.peyto.pdf.java.generator.entity.LinkIndex;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rewriting of a single link, the way it is done for every {@code <a href>} of every file:
+ * resolved from scratch, and looked up in the {@link LinkIndex} of the project.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LinkRewriteBenchmark {
+
+    @Param({"com-example-synthetic-core1-impl7"})
+    public String currentPackage;
+
+    @Param({"Helper.java.html", "../../api3/model9/OrderService12.java.html", "util2/index.html", "#l12"})
+    public String link;
+
+    private LinkIndex linkIndex;
+
+    @Setup
+    public void setUp() {
+        JPackage root = new JPackage("exportToHtml");
+        root.addChildPackage(new JPackage("com"));
+        linkIndex = new JavaProject(root).getLinkIndex();
+    }
+
+    @Benchmark
+    public Pair<String, HtmlFileSupplier.SourceHtmlType> resolveLink() {
+        return LinkIndex.resolveLink(currentPackage, link);
+    }
+
+    @Benchmark
+    public Pair<String, HtmlFileSupplier.SourceHtmlType> linkIndexLookup() {
+        return linkIndex.resolve(currentPackage, link);
+    }
+}
@@ -0,0 +1,71 @@
+package org.peyto.pdf.java.generator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.peyto.pdf.java.generator.entity.JavaProject;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pdf layout is by far the slowest phase, so this one should be run with small exports, e.g. {@code -p classes=100}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PdfGeneratorBenchmark {
+
+    @Param({"single", "sharded"})
+    public String mode;
+
+    @Param({"4"})
+    public int threads;
+
+    @Param({"SHIPPED", "CODE"})
+    public PdfGenerator.Fonts fonts;
+
+    @Param({"DEFAULT", "FAST", "SMALL"})
+    public PdfOutputProfile outputProfile;
+
+    private PdfGenerator pdfGenerator;
+    private OutputDocument outputDocument;
+    private Path outputFile;
+
+    @Setup(Level.Trial)
+    public void transform(SyntheticExportState state) throws IOException {
+        JavaProject javaProject = new JavaProject(FileCollector.collectHTMLFiles(state.exportFolder.toString()));
+        outputDocument = HtmlTransformer.processHTMLFiles(javaProject);
+        outputFile = state.outputFolder.resolve("benchmark.pdf");
+        pdfGenerator = new PdfGenerator(fonts, null, null, outputProfile);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.deleteIfExists(outputFile);
+    }
+
+    @Benchmark
+    public void generateFile() {
+        if ("sharded".equals(mode)) {
+            pdfGenerator.generateShardedFile(outputFile.toString(), outputDocument, threads);
+        } else {
+            pdfGenerator.generateFile(outputFile.toString(), outputDocument);
+        }
+    }
+}
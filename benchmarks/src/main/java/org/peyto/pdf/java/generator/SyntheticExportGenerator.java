@@ -0,0 +1,292 @@
+package org.peyto.pdf.java.generator;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a folder looking like IntelliJ "Export to HTML" output of a java project: a package tree with
+ * {@code index.html} in every package and highlighted {@code .java.html} files with line numbers and links
+ * between classes.
+ * <p>
+ * Output depends only on the parameters, the same seed always produces the same files.
+ */
+public class SyntheticExportGenerator {
+
+    private static final String BASE_PACKAGE = "com.example.synthetic";
+    private static final String[] PACKAGE_NAMES = {"api", "core", "util", "model", "service", "impl", "web", "data", "config", "internal"};
+    private static final String[] CLASS_PREFIXES = {"Order", "Customer", "Invoice", "Account", "Payment", "Report", "Session", "Document", "Message", "Task"};
+    private static final String[] CLASS_SUFFIXES = {"Service", "Repository", "Controller", "Mapper", "Helper", "Factory", "Handler", "Validator", "Dto", ""};
+
+    // IntelliJ uses s0, s1, ... per file, so the same class name means different styles in different color schemes
+    private static final String[][] COLOR_SCHEMES = {
+            {"#cc7832", "#a9b7c6", "#808080", "#6a8759", "#6897bb", "#629755"},
+            {"#000080; font-weight: bold;", "#000000", "#808080; font-style: italic;", "#008000; font-weight: bold;", "#0000ff", "#8c8c8c"},
+            {"#a9b7c6", "#cc7832", "#6a8759", "#808080", "#9876aa", "#bbb529"},
+    };
+    private static final int KEYWORD = 0;
+    private static final int TEXT = 1;
+    private static final int COMMENT = 2;
+    private static final int STRING = 3;
+    private static final int NUMBER = 4;
+
+    private final int classes;
+    private final int maxDepth;
+    private final int minLines;
+    private final int maxLines;
+    private final long seed;
+
+    public SyntheticExportGenerator(int classes, int maxDepth, int minLines, int maxLines, long seed) {
+        if (classes < 1 || maxDepth < 1 || minLines < 10 || maxLines < minLines) {
+            throw new IllegalArgumentException("Expected classes >= 1, maxDepth >= 1, 10 <= minLines <= maxLines");
+        }
+        this.classes = classes;
+        this.maxDepth = maxDepth;
+        this.minLines = minLines;
+        this.maxLines = maxLines;
+        this.seed = seed;
+    }
+
+    public SyntheticExportGenerator(int classes) {
+        this(classes, 5, 20, 2000, 42);
+    }
+
+    /**
+     * Usage: SyntheticExportGenerator &lt;outputFolder&gt; &lt;classes&gt; [maxDepth] [minLines] [maxLines] [seed]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: SyntheticExportGenerator <outputFolder> <classes> [maxDepth] [minLines] [maxLines] [seed]");
+            System.exit(1);
+        }
+        SyntheticExportGenerator generator = new SyntheticExportGenerator(Integer.parseInt(args[1]),
+                args.length > 2 ? Integer.parseInt(args[2]) : 5,
+                args.length > 3 ? Integer.parseInt(args[3]) : 20,
+                args.length > 4 ? Integer.parseInt(args[4]) : 2000,
+                args.length > 5 ? Long.parseLong(args[5]) : 42);
+        Path exportFolder = generator.generate(Paths.get(args[0]));
+        System.out.println("Generated " + exportFolder);
+    }
+
+    /**
+     * @return export folder, to be passed to the converter
+     */
+    public Path generate(Path outputFolder) throws IOException {
+        Random random = new Random(seed);
+        Path exportFolder = outputFolder.resolve("exportToHtml");
+
+        List<SyntheticPackage> packages = generatePackages(random);
+        List<SyntheticClass> allClasses = new ArrayList<>(classes);
+        for (int i = 0; i < classes; i++) {
+            SyntheticPackage jPackage = packages.get(random.nextInt(packages.size()));
+            String name = CLASS_PREFIXES[random.nextInt(CLASS_PREFIXES.length)] + CLASS_SUFFIXES[random.nextInt(CLASS_SUFFIXES.length)] + i;
+            SyntheticClass jClass = new SyntheticClass(jPackage, name);
+            jPackage.classes.add(jClass);
+            allClasses.add(jClass);
+        }
+
+        for (SyntheticPackage jPackage : packages) {
+            Path folder = exportFolder.resolve(jPackage.path());
+            Files.createDirectories(folder);
+            writePackageIndex(folder.resolve("index.html"), jPackage);
+        }
+        for (SyntheticClass jClass : allClasses) {
+            writeClass(exportFolder.resolve(jClass.jPackage.path()).resolve(jClass.name + ".java.html"), jClass, allClasses, random);
+        }
+        return exportFolder;
+    }
+
+    private List<SyntheticPackage> generatePackages(Random random) {
+        List<SyntheticPackage> packages = new ArrayList<>();
+        packages.add(new SyntheticPackage(BASE_PACKAGE, 0));
+        int packagesCount = Math.max(1, classes / 25);
+        for (int i = 1; i < packagesCount; i++) {
+            SyntheticPackage parent;
+            do {
+                parent = packages.get(random.nextInt(packages.size()));
+            } while (parent.depth >= maxDepth);
+            String name = PACKAGE_NAMES[random.nextInt(PACKAGE_NAMES.length)] + i;
+            SyntheticPackage jPackage = new SyntheticPackage(parent.name + "." + name, parent.depth + 1);
+            parent.packages.add(jPackage);
+            packages.add(jPackage);
+        }
+        return packages;
+    }
+
+    private static void writePackageIndex(Path file, SyntheticPackage jPackage) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("<html>\n<head>\n<title>" + jPackage.name + "</title>\n" +
+                    "<meta http-equiv=\"Content-Type\" content=\"text/html; charset=utf-8\">\n</head>\n<body>\n");
+            for (SyntheticPackage child : jPackage.packages) {
+                writer.write("<a href=\"" + child.simpleName() + "/index.html\">" + child.simpleName() + "</a><br>\n");
+            }
+            for (SyntheticClass jClass : jPackage.classes) {
+                writer.write("<a href=\"" + jClass.name + ".java.html\">" + jClass.name + ".java</a><br>\n");
+            }
+            writer.write("</body>\n</html>\n");
+        }
+    }
+
+    private void writeClass(Path file, SyntheticClass jClass, List<SyntheticClass> allClasses, Random random) throws IOException {
+        String[] colors = COLOR_SCHEMES[random.nextInt(COLOR_SCHEMES.length)];
+        int lines = minLines + (int) ((maxLines - minLines) * Math.pow(random.nextDouble(), 4));
+        List<SyntheticClass> imports = new ArrayList<>();
+        for (int i = 0, count = random.nextInt(8); i < count; i++) {
+            imports.add(allClasses.get(random.nextInt(allClasses.size())));
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("<html>\n<head>\n<title>" + jClass.name + ".java</title>\n" +
+                    "<meta http-equiv=\"Content-Type\" content=\"text/html; charset=utf-8\">\n<style type=\"text/css\">\n");
+            for (int i = 0; i < colors.length; i++) {
+                writer.write(".s" + i + " { color: " + colors[i] + "}\n");
+            }
+            writer.write(".ln { color: #606366; font-weight: normal; font-style: normal; }\n</style>\n</head>\n" +
+                    "<body bgcolor=\"#2b2b2b\">\n" +
+                    "<table CELLSPACING=0 CELLPADDING=5 COLS=1 WIDTH=\"100%\" BGCOLOR=\"#606060\" >\n" +
+                    "<tr><td><center>\n<font face=\"Arial, Helvetica\" color=\"#000000\">\n" + jClass.name + ".java</font>\n" +
+                    "</center></td></tr></table>\n<pre>");
+
+            LineWriter out = new LineWriter(writer);
+            out.line(span(KEYWORD, "package ") + span(TEXT, jClass.jPackage.name) + span(KEYWORD, ";"));
+            out.line("");
+            for (SyntheticClass imported : imports) {
+                out.line(span(KEYWORD, "import ") + span(TEXT, imported.jPackage.name + ".") + link(jClass, imported) + span(KEYWORD, ";"));
+            }
+            out.line("");
+            out.line(span(COMMENT, "/**"));
+            out.line(span(COMMENT, " * Generated class " + jClass.name + " &lt;synthetic&gt;"));
+            out.line(span(COMMENT, " */"));
+            out.line(span(KEYWORD, "public class ") + span(TEXT, jClass.name + " {"));
+            int method = 0;
+            while (out.lineNumber < lines - 1) {
+                out.line("");
+                out.line(span(KEYWORD, "    public ") + span(TEXT, "String method" + method++ + "(") + span(KEYWORD, "int ") + span(TEXT, "value) {"));
+                for (int i = 0, statements = 1 + random.nextInt(12); i < statements && out.lineNumber < lines - 2; i++) {
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            out.line(span(COMMENT, "        // step " + i + " of the synthetic algorithm"));
+                            break;
+                        case 1:
+                            out.line(span(TEXT, "        value = value * ") + span(NUMBER, String.valueOf(random.nextInt(1000))) + span(KEYWORD, ";"));
+                            break;
+                        case 2:
+                            if (!imports.isEmpty()) {
+                                out.line(span(TEXT, "        ") + link(jClass, imports.get(random.nextInt(imports.size()))) +
+                                        span(TEXT, ".process(value)") + span(KEYWORD, ";"));
+                                break;
+                            }
+                            // fall through
+                        default:
+                            out.line(span(TEXT, "        log(") + span(STRING, "\"value &amp; result: \"") + span(TEXT, " + value)") + span(KEYWORD, ";"));
+                    }
+                }
+                out.line(span(KEYWORD, "        return ") + span(TEXT, "String.valueOf(value)") + span(KEYWORD, ";"));
+                out.line(span(TEXT, "    }"));
+            }
+            out.line(span(TEXT, "}"));
+            writer.write("</pre>\n</body>\n</html>\n");
+        }
+    }
+
+    private static String span(int style, String text) {
+        return "<span class=\"s" + style + "\">" + text + "</span>";
+    }
+
+    private static String link(SyntheticClass from, SyntheticClass to) {
+        return "<a href=\"" + from.jPackage.relativePathTo(to.jPackage) + to.name + ".java.html\">" + span(TEXT, to.name) + "</a>";
+    }
+
+    public static void deleteRecursively(Path folder) throws IOException {
+        if (!Files.exists(folder)) {
+            return;
+        }
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Writes lines prefixed with line numbers the way IntelliJ does.
+     */
+    private static class LineWriter {
+
+        private final BufferedWriter writer;
+        private int lineNumber = 0;
+
+        private LineWriter(BufferedWriter writer) {
+            this.writer = writer;
+        }
+
+        private void line(String content) {
+            lineNumber++;
+            String number = String.valueOf(lineNumber);
+            StringBuilder padded = new StringBuilder(number);
+            while (padded.length() < 5) {
+                padded.append(' ');
+            }
+            try {
+                writer.write("<a name=\"l" + number + "\"><span class=\"ln\">" + padded + "</span></a>" + content + "\n");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static class SyntheticPackage {
+
+        private final String name;
+        private final int depth;
+        private final List<SyntheticPackage> packages = new ArrayList<>();
+        private final List<SyntheticClass> classes = new ArrayList<>();
+
+        private SyntheticPackage(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+
+        private String simpleName() {
+            return name.substring(name.lastIndexOf('.') + 1);
+        }
+
+        private Path path() {
+            return Paths.get(name.replace('.', '/'));
+        }
+
+        private String relativePathTo(SyntheticPackage target) {
+            String relative = path().relativize(target.path()).toString().replace('\\', '/');
+            return relative.isEmpty() ? "" : relative + "/";
+        }
+    }
+
+    private static class SyntheticClass {
+
+        private final SyntheticPackage jPackage;
+        private final String name;
+
+        private SyntheticClass(SyntheticPackage jPackage, String name) {
+            this.jPackage = jPackage;
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.peyto.pdf.java.generator;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Synthetic export generated once per trial into a temporary folder.
+ */
+@State(Scope.Benchmark)
+public class SyntheticExportState {
+
+    @Param({"100", "1000"})
+    public int classes;
+
+    @Param({"5"})
+    public int maxDepth;
+
+    @Param({"20"})
+    public int minLines;
+
+    @Param({"2000"})
+    public int maxLines;
+
+    public Path outputFolder;
+    public Path exportFolder;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        outputFolder = Files.createTempDirectory("pdf-java-generator-benchmark");
+        exportFolder = new SyntheticExportGenerator(classes, maxDepth, minLines, maxLines, 42).generate(outputFolder);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        SyntheticExportGenerator.deleteRecursively(outputFolder);
+    }
+}
@@ -0,0 +1,100 @@
+package org.peyto.pdf.java.generator;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.TextNode;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.peyto.pdf.java.generator.entity.HtmlFileSupplier;
+import org.peyto.pdf.java.generator.entity.JavaProject;
+import org.peyto.pdf.java.generator.entity.ProjectNode;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Transformed document of the synthetic export is the same with {@link ExportRewriter} as with the Jsoup path,
+ * once both are serialized the same way, by parsing them with Jsoup. Whitespace between tags outside of code
+ * is not compared, it is serialized differently, but renders the same.
+ */
+class ExportRewriterEquivalenceTest {
+
+    private static final int CLASSES = 60;
+    private static final int REMOVED_CLASSES = 5;
+    private static final long SEED = 7;
+
+    @TempDir
+    Path tempDir;
+
+    @ParameterizedTest(name = "strip dangling links: {0}")
+    @ValueSource(booleans = {false, true})
+    void rewritesLikeJsoup(boolean stripDanglingLinks) throws IOException {
+        Path exportFolder = new SyntheticExportGenerator(CLASSES, 3, 10, 60, SEED).generate(tempDir);
+        // links to the removed classes are dangling
+        List<Path> classFiles;
+        try (Stream<Path> files = Files.walk(exportFolder)) {
+            classFiles = files.filter(file -> file.getFileName().toString().endsWith(".java.html")).sorted().collect(Collectors.toList());
+        }
+        for (int i = 0; i < REMOVED_CLASSES; i++) {
+            Files.delete(classFiles.get(i * classFiles.size() / REMOVED_CLASSES));
+        }
+        JavaProject project = new JavaProject(FileCollector.collectHTMLFiles(exportFolder.toString()));
+
+        // every class file is of the shape known to the rewriter, none is left to Jsoup
+        for (Pair<ProjectNode, String> node : project.getOrderedNodesWithSections()) {
+            ProjectNode projectNode = node.getLeft();
+            if (projectNode.sourceHtmlType() == HtmlFileSupplier.SourceHtmlType.CLASS) {
+                String html = new String(Files.readAllBytes(projectNode.getHtmlFile()), StandardCharsets.UTF_8);
+                assertNotNull(new ExportRewriter(projectNode.getName(), project.getLinkIndex()).rewrite(html), projectNode.toString());
+            }
+        }
+        assertEquals(transform(project, stripDanglingLinks, false), transform(project, stripDanglingLinks, true));
+    }
+
+    private static String transform(JavaProject project, boolean stripDanglingLinks, boolean streamingRewriter) throws IOException {
+        ConversionOptions options = new ConversionOptions();
+        options.setStripDanglingLinks(stripDanglingLinks);
+        options.setStreamingRewriter(streamingRewriter);
+        StringWriter html = new StringWriter();
+        try (OutputDocument outputDocument = HtmlTransformer.processHTMLFiles(project, options)) {
+            outputDocument.writeTo(html);
+        }
+        return normalize(html.toString());
+    }
+
+    private static String normalize(String html) {
+        Document document = Jsoup.parse(html);
+        for (Element element : document.getAllElements()) {
+            if (isCode(element)) {
+                continue;
+            }
+            for (TextNode text : element.textNodes()) {
+                if (text.isBlank()) {
+                    text.remove();
+                }
+            }
+        }
+        return document.outerHtml();
+    }
+
+    private static boolean isCode(Element element) {
+        for (Element parent = element; parent != null; parent = parent.parent()) {
+            if (parent.tagName().equals("pre")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
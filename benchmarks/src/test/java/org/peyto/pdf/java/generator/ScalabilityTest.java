@@ -0,0 +1,212 @@
+package org.peyto.pdf.java.generator;
+
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfReader;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Full {@link HtmlToPDFConverterApplication} runs on synthetic exports, every one in its own JVM with the heap cap
+ * of its size, checked against {@code scalability-budgets.properties}: the run should complete within the heap and
+ * the min throughput, and page count, anchors (named destinations of the pdf) and table of content entries should
+ * match the recorded ones.
+ * <p>
+ * Sizes are set by {@code -Dscalability.sizes=1000,10000,50000} (1000 by default). With {@code -Dscalability.record=true}
+ * nothing is checked, results are written to {@code target/scalability/recorded.properties}, to be copied to the budgets.
+ */
+class ScalabilityTest {
+
+    private static final String BUDGETS = "/scalability-budgets.properties";
+    private static final Path WORK_FOLDER = Paths.get("target", "scalability");
+    private static final Pattern TOC_LINK = Pattern.compile("href=\"#([^\"]*)\"");
+    private static final int LOG_LINES_REPORTED = 20;
+
+    private static final int MAX_DEPTH = 5;
+    private static final int MIN_LINES = 10;
+    private static final int MAX_LINES = 120;
+    private static final long SEED = 42;
+
+    static Stream<Integer> sizes() {
+        return Arrays.stream(System.getProperty("scalability.sizes", "1000").split(","))
+                .map(String::trim)
+                .map(Integer::valueOf);
+    }
+
+    @ParameterizedTest(name = "{0} classes")
+    @MethodSource("sizes")
+    void convertsWithinBudget(int classes) throws IOException, InterruptedException {
+        boolean record = Boolean.getBoolean("scalability.record");
+        Properties budgets = loadBudgets();
+        String xmx = budget(budgets, classes, "xmx");
+        // e.g. sharded pdf and memory budget, which large projects need to fit the heap
+        String options = budgets.getProperty(classes + ".options", "").trim();
+        Path folder = WORK_FOLDER.resolve(String.valueOf(classes));
+        SyntheticExportGenerator.deleteRecursively(folder);
+        Path exportFolder = new SyntheticExportGenerator(classes, MAX_DEPTH, MIN_LINES, MAX_LINES, SEED).generate(folder);
+        Path output = folder.resolve("output");
+        Path log = folder.resolve("conversion.log");
+
+        // Time limit is the min throughput, a run too slow is stopped there
+        long maxSeconds = record ? Long.MAX_VALUE : (long) Math.ceil(classes / Double.parseDouble(budget(budgets, classes, "minClassesPerSecond")));
+        long startNanos = System.nanoTime();
+        List<String> command = new ArrayList<>(Arrays.asList(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Xmx" + xmx, "-XX:+ExitOnOutOfMemoryError",
+                "-cp", System.getProperty("java.class.path"),
+                HtmlToPDFConverterApplication.class.getName(), exportFolder.toString(), output.toString(), "--outputs=pdf,html"));
+        if (!options.isEmpty()) {
+            command.addAll(Arrays.asList(options.split("\\s+")));
+        }
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+        if (!process.waitFor(maxSeconds, TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor();
+            fail(classes + " classes are not converted in " + maxSeconds + " s, below the min throughput\n" + logTail(log));
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        int exitCode = process.exitValue();
+        String logTail = logTail(log);
+        assertFalse(logTail.contains("OutOfMemoryError"), () -> classes + " classes ran out of -Xmx" + xmx + "\n" + logTail);
+        assertEquals(0, exitCode, () -> "Conversion of " + classes + " classes failed\n" + logTail);
+
+        Properties result = new Properties();
+        try (PdfDocument pdf = new PdfDocument(new PdfReader(output + ".pdf"))) {
+            result.setProperty(classes + ".pages", String.valueOf(pdf.getNumberOfPages()));
+            List<String> anchors = new ArrayList<>(pdf.getCatalog().getNameTree(PdfName.Dests).getNames().keySet());
+            result.setProperty(classes + ".anchors", checksum(anchors.stream().sorted().collect(Collectors.toList())));
+        }
+        result.setProperty(classes + ".toc", checksum(readTableOfContent(Paths.get(output + ".html"))));
+        double classesPerSecond = classes / seconds;
+        System.out.printf(Locale.ROOT, "%d classes converted in %.1f s with -Xmx%s%s, %.1f classes/s%n", classes, seconds, xmx,
+                options.isEmpty() ? "" : " " + options, classesPerSecond);
+
+        if (record) {
+            // half of the measured throughput, so a slower machine does not fail
+            result.setProperty(classes + ".minClassesPerSecond", String.format(Locale.ROOT, "%.1f", classesPerSecond / 2));
+            result.setProperty(classes + ".xmx", xmx);
+            if (!options.isEmpty()) {
+                result.setProperty(classes + ".options", options);
+            }
+            writeRecorded(result);
+            return;
+        }
+        for (String name : result.stringPropertyNames()) {
+            assertEquals(budget(budgets, classes, name.substring(name.indexOf('.') + 1)), result.getProperty(name),
+                    () -> name + " differs from the recorded one");
+        }
+        SyntheticExportGenerator.deleteRecursively(folder);
+    }
+
+    private static Properties loadBudgets() throws IOException {
+        Properties budgets = new Properties();
+        try (InputStream in = ScalabilityTest.class.getResourceAsStream(BUDGETS)) {
+            assertNotNull(in, BUDGETS + " is missing");
+            budgets.load(in);
+        }
+        return budgets;
+    }
+
+    private static String budget(Properties budgets, int classes, String name) {
+        String value = budgets.getProperty(classes + "." + name);
+        if (value == null && name.equals("xmx")) {
+            // heap cap of a new size, until its budgets are recorded
+            value = budgets.getProperty("default.xmx");
+        }
+        assertNotNull(value, () -> "No " + name + " recorded for " + classes + " classes, run with -Dscalability.record=true first");
+        return value;
+    }
+
+    /**
+     * @return anchor ids the table of content links to, in their order
+     */
+    private static List<String> readTableOfContent(Path html) throws IOException {
+        List<String> entries = new ArrayList<>();
+        boolean inTableOfContent = false;
+        try (BufferedReader reader = Files.newBufferedReader(html, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.contains("id=\"tocDiv\"")) {
+                    inTableOfContent = true;
+                } else if (inTableOfContent && line.contains("</div>")) {
+                    break;
+                }
+                if (inTableOfContent) {
+                    Matcher matcher = TOC_LINK.matcher(line);
+                    while (matcher.find()) {
+                        entries.add(matcher.group(1));
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return number of values and start of their sha-256, short enough to be recorded, but changing with any value
+     */
+    private static String checksum(List<String> values) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String value : values) {
+                digest.update(value.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : Arrays.copyOf(digest.digest(), 8)) {
+                hex.append(String.format("%02x", b));
+            }
+            return values.size() + ":" + hex;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String logTail(Path log) throws IOException {
+        List<String> lines = Files.readAllLines(log, StandardCharsets.UTF_8);
+        return String.join("\n", lines.subList(Math.max(0, lines.size() - LOG_LINES_REPORTED), lines.size()));
+    }
+
+    private static synchronized void writeRecorded(Properties result) throws IOException {
+        File recordedFile = WORK_FOLDER.resolve("recorded.properties").toFile();
+        Properties recorded = new Properties();
+        if (recordedFile.exists()) {
+            try (InputStream in = Files.newInputStream(recordedFile.toPath())) {
+                recorded.load(in);
+            }
+        }
+        recorded.putAll(result);
+        try (OutputStream out = Files.newOutputStream(recordedFile.toPath())) {
+            recorded.store(out, "Copy to src/test/resources" + BUDGETS);
+        }
+        System.out.println("Recorded to " + recordedFile);
+    }
+}
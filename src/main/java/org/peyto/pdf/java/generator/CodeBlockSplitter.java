@@ -0,0 +1,110 @@
+package org.peyto.pdf.java.generator;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Splits the {@code <pre>} code block of a transformed class file into blocks of a limited number of lines.
+ * Layout time of a single block grows faster than its number of lines, so one file of tens of thousands of lines
+ * could take longer than the rest of the project, while the same lines in small blocks are laid out in linear time.
+ * <p>
+ * Blocks follow each other without margins in between, so they render the same as the single block.
+ * Tags open at a split (a highlighted multi-line comment, a link) are closed at the end of the block and
+ * opened again with the same attributes in the next one. Blocks are split at a line break, which is replaced
+ * by the end of the block, but never next to an empty line, as html drops a line break right after {@code <pre>}.
+ */
+final class CodeBlockSplitter {
+
+    private static final String PRE_START = "<pre>";
+    private static final String PRE_END = "</pre>";
+    private static final String FIRST_BLOCK = "<pre style=\"margin-bottom: 0\">";
+    private static final String NEXT_BLOCK = "<pre style=\"margin-top: 0; margin-bottom: 0\">";
+    private static final String LAST_BLOCK = "<pre style=\"margin-top: 0\">";
+
+    private CodeBlockSplitter() {
+    }
+
+    /**
+     * @param html      serialized body of a class file, with tags of the {@code <pre>} content produced by this tool
+     *                  ({@code span} and {@code a}), and every {@code <} of its text escaped
+     * @param maxLines  max number of lines in a block, 0 to keep the block as it is
+     * @return html with the code block split, or the same html if it has no more lines than {@code maxLines}
+     */
+    static String split(String html, int maxLines) {
+        if (maxLines <= 0) {
+            return html;
+        }
+        int preStart = html.indexOf(PRE_START);
+        int preEnd = html.lastIndexOf(PRE_END);
+        if (preStart == -1 || preEnd < preStart || countLines(html, preStart, preEnd) <= maxLines) {
+            return html;
+        }
+        int contentStart = preStart + PRE_START.length();
+        StringBuilder out = new StringBuilder(html.length() + html.length() / 16);
+        out.append(html, 0, preStart).append(FIRST_BLOCK);
+        // start tags of the elements open at the current position, innermost first
+        Deque<String> openTags = new ArrayDeque<>();
+        int lastBlockStart = -1;
+        int lines = 1;
+        int pos = contentStart;
+        int copied = contentStart;
+        while (pos < preEnd) {
+            char c = html.charAt(pos);
+            if (c == '<') {
+                int tagEnd = html.indexOf('>', pos);
+                if (tagEnd == -1 || tagEnd >= preEnd) {
+                    break;
+                }
+                if (html.charAt(pos + 1) == '/') {
+                    openTags.poll();
+                } else if (html.charAt(tagEnd - 1) != '/') {
+                    openTags.push(html.substring(pos, tagEnd + 1));
+                }
+                pos = tagEnd + 1;
+            } else if (c == '\n' && lines >= maxLines && html.charAt(pos - 1) != '\n' && pos + 1 < preEnd
+                    && html.charAt(pos + 1) != '\n') {
+                out.append(html, copied, pos);
+                for (String openTag : openTags) {
+                    out.append("</").append(tagName(openTag)).append('>');
+                }
+                out.append(PRE_END);
+                lastBlockStart = out.length();
+                out.append(NEXT_BLOCK);
+                for (Iterator<String> tags = openTags.descendingIterator(); tags.hasNext(); ) {
+                    out.append(tags.next());
+                }
+                pos++;
+                copied = pos;
+                lines = 1;
+            } else {
+                if (c == '\n') {
+                    lines++;
+                }
+                pos++;
+            }
+        }
+        if (lastBlockStart != -1) {
+            out.replace(lastBlockStart, lastBlockStart + NEXT_BLOCK.length(), LAST_BLOCK);
+        }
+        return out.append(html, copied, html.length()).toString();
+    }
+
+    private static int countLines(String html, int from, int to) {
+        int lines = 1;
+        for (int i = from; i < to; i++) {
+            if (html.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    private static String tagName(String startTag) {
+        int end = 1;
+        while (end < startTag.length() && Character.isLetterOrDigit(startTag.charAt(end))) {
+            end++;
+        }
+        return startTag.substring(1, end);
+    }
+}
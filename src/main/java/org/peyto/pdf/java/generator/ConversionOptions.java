@@ -0,0 +1,620 @@
+package org.peyto.pdf.java.generator;
+
+import org.peyto.pdf.java.generator.metrics.ConversionListener;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Command line options of a single conversion run.
+ * <p>
+ * Positional arguments are {@code <inputFolderPath> [outputFileName]}, the input folder could be a zip or jar archive
+ * (or a folder of it, {@code export.zip!/exportToHtml}), everything starting with {@code --} is a flag
+ * in {@code --name=value} (or {@code --name} for booleans) form.
+ */
+public class ConversionOptions {
+
+    /**
+     * Files written by a run, all made of one transformed document.
+     */
+    public enum Output {
+        /**
+         * {@code <outputFileName>.pdf} with the whole project
+         */
+        PDF,
+        /**
+         * {@code <outputFileName>.html}, the html the pdf is made of
+         */
+        HTML,
+        /**
+         * {@code <outputFileName>-<package>.pdf} with the files of every top-level package
+         */
+        PACKAGE_PDFS
+    }
+
+    /**
+     * Entries of the printed table of content in front of the package pages.
+     */
+    public enum TableOfContent {
+        /**
+         * Every package and class
+         */
+        FULL,
+        /**
+         * Packages only, classes are listed on package pages
+         */
+        COMPACT,
+        /**
+         * The base package only, the line file headers link back to
+         */
+        NONE
+    }
+
+    public static final String USAGE = "Usage: HtmlToPDFConverterApplication <inputFolderPath> [outputFileName without extension] [options]\n" +
+            "The input folder could be a zip or jar archive, read without extracting it, or a folder of the archive:\n" +
+            "export.zip!/exportToHtml\n" +
+            "Options:\n" +
+            "  --outputs=LIST       comma separated outputs: pdf (default), html, package-pdfs (pdf of every top-level package),\n" +
+            "                       written concurrently using --threads workers\n" +
+            "  --input=FORMAT       input folder format: html (default, IntelliJ \"Export to HTML\" output) or source\n" +
+            "                       (source root, files are highlighted without the export)\n" +
+            "  --source-extensions=LIST comma separated extensions of source files read with --input=source (default java)\n" +
+            "  --include=PATTERN    collect only files matching the pattern, relative to the input folder, glob (default) or\n" +
+            "                       regex: prefixed, e.g. org/example/core/** (repeat for more patterns)\n" +
+            "  --exclude=PATTERN    skip matching folders and files, e.g. **/generated (repeat for more patterns)\n" +
+            "  --max-file-size=SIZE skip files bigger than SIZE (e.g. 512k, 2m)\n" +
+            "  --threads=N          number of threads used to parse and transform html files (default 1), files are read\n" +
+            "                       ahead by one more thread\n" +
+            "  --streaming-rewriter rewrite class files of the html export in one pass without building a DOM, files of\n" +
+            "                       unexpected structure are still parsed\n" +
+            "  --cache-dir=DIR      keep transformed files in DIR and reuse them for unchanged files on the next run\n" +
+            "  --sharded-pdf        lay out every top-level package to its own pdf using --threads workers, then merge them\n" +
+            "  --code-block-lines=N split code of a file into blocks of about N lines, e.g. 60 (default 0, never split),\n" +
+            "                       which keeps layout time of very long files proportional to their length\n" +
+            "  --toc=MODE           printed table of content: full (default, packages and classes), compact (packages only)\n" +
+            "                       or none, a long one takes many pages to lay out\n" +
+            "  --outline            add pdf bookmarks of all packages and classes, navigation without the printed table of content\n" +
+            "  --strip-dangling-links remove links to files, which are not in the input folder\n" +
+            "  --memory-budget=SIZE keep at most SIZE (e.g. 512m, 2g) of transformed files in memory, the rest in a temporary file\n" +
+            "  --fonts=FONTS        fonts available to the pdf: shipped (default, fonts shipped with html2pdf), code (standard pdf fonts\n" +
+            "                       and a monospace font only, fastest) or system (shipped and system fonts, scanned on start)\n" +
+            "  --base-uri=URI       base uri of relative resources, e.g. images (default is the current directory)\n" +
+            "  --media=MEDIA        css media type used for the pdf, e.g. print or screen\n" +
+            "  --output-profile=P   pdf compression: default, fast (fastest write, bigger file) or small (best compression,\n" +
+            "                       object streams and shared resources, slower write)\n" +
+            "  --metrics-report=FILE write timings of every phase and metrics of every file as json to FILE\n" +
+            "  --watch              keep running and regenerate the output whenever files of the input folder change,\n" +
+            "                       only changed files are transformed and only changed packages laid out again\n" +
+            "  --watch-debounce=MS  quiet time after the last change before regenerating in milliseconds (default 500)";
+
+    private String folderPath;
+    private String outputFileName = "output";
+    private Set<Output> outputs = EnumSet.of(Output.PDF);
+    private FileCollector.InputFormat inputFormat = FileCollector.InputFormat.HTML;
+    private Set<String> sourceExtensions = Collections.singleton("java");
+    private final List<String> includes = new ArrayList<>();
+    private final List<String> excludes = new ArrayList<>();
+    private long maxFileSize = -1;
+    private int threads = 1;
+    private boolean streamingRewriter = false;
+    private Path cacheDir;
+    private boolean shardedPdf = false;
+    private int codeBlockLines = 0;
+    private TableOfContent tableOfContent = TableOfContent.FULL;
+    private boolean outline = false;
+    private boolean stripDanglingLinks = false;
+    private long memoryBudget = -1;
+    private PdfGenerator.Fonts fonts = PdfGenerator.Fonts.SHIPPED;
+    private String baseUri;
+    private String media;
+    private PdfOutputProfile outputProfile = PdfOutputProfile.DEFAULT;
+    private Path metricsReport;
+    private boolean watch = false;
+    private long watchDebounceMillis = 500;
+    private final List<ConversionListener> listeners = new ArrayList<>();
+
+    /**
+     * @return options with the same values, changing them doesn't change these ones
+     */
+    public ConversionOptions copy() {
+        ConversionOptions copy = new ConversionOptions();
+        copy.folderPath = folderPath;
+        copy.outputFileName = outputFileName;
+        copy.outputs = EnumSet.copyOf(outputs);
+        copy.inputFormat = inputFormat;
+        copy.sourceExtensions = sourceExtensions;
+        copy.includes.addAll(includes);
+        copy.excludes.addAll(excludes);
+        copy.maxFileSize = maxFileSize;
+        copy.threads = threads;
+        copy.streamingRewriter = streamingRewriter;
+        copy.cacheDir = cacheDir;
+        copy.shardedPdf = shardedPdf;
+        copy.codeBlockLines = codeBlockLines;
+        copy.tableOfContent = tableOfContent;
+        copy.outline = outline;
+        copy.stripDanglingLinks = stripDanglingLinks;
+        copy.memoryBudget = memoryBudget;
+        copy.fonts = fonts;
+        copy.baseUri = baseUri;
+        copy.media = media;
+        copy.outputProfile = outputProfile;
+        copy.metricsReport = metricsReport;
+        copy.watch = watch;
+        copy.watchDebounceMillis = watchDebounceMillis;
+        copy.listeners.addAll(listeners);
+        return copy;
+    }
+
+    public static ConversionOptions parse(String[] args) {
+        ConversionOptions options = new ConversionOptions();
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                positional.add(arg);
+                continue;
+            }
+            int eq = arg.indexOf('=');
+            String name = eq == -1 ? arg.substring(2) : arg.substring(2, eq);
+            String value = eq == -1 ? null : arg.substring(eq + 1);
+            switch (name) {
+                case "outputs":
+                    options.setOutputs(parseOutputs(name, value));
+                    break;
+                case "input":
+                    options.setInputFormat(parseInputFormat(name, value));
+                    break;
+                case "source-extensions":
+                    options.setSourceExtensions(parseExtensions(name, value));
+                    break;
+                case "include":
+                    options.addInclude(requireValue(name, value));
+                    break;
+                case "exclude":
+                    options.addExclude(requireValue(name, value));
+                    break;
+                case "max-file-size":
+                    options.setMaxFileSize(parseSize(name, value));
+                    break;
+                case "threads":
+                    options.setThreads(parseInt(name, value));
+                    break;
+                case "streaming-rewriter":
+                    options.setStreamingRewriter(parseBoolean(name, value));
+                    break;
+                case "sharded-pdf":
+                    options.setShardedPdf(parseBoolean(name, value));
+                    break;
+                case "code-block-lines":
+                    options.setCodeBlockLines(parseInt(name, value));
+                    break;
+                case "toc":
+                    options.setTableOfContent(parseTableOfContent(name, value));
+                    break;
+                case "outline":
+                    options.setOutline(parseBoolean(name, value));
+                    break;
+                case "strip-dangling-links":
+                    options.setStripDanglingLinks(parseBoolean(name, value));
+                    break;
+                case "memory-budget":
+                    options.setMemoryBudget(parseSize(name, value));
+                    break;
+                case "fonts":
+                    options.setFonts(parseFonts(name, value));
+                    break;
+                case "base-uri":
+                    options.setBaseUri(requireValue(name, value));
+                    break;
+                case "media":
+                    options.setMedia(requireValue(name, value));
+                    break;
+                case "output-profile":
+                    options.setOutputProfile(parseOutputProfile(name, value));
+                    break;
+                case "metrics-report":
+                    options.setMetricsReport(Paths.get(requireValue(name, value)));
+                    break;
+                case "watch":
+                    options.setWatch(parseBoolean(name, value));
+                    break;
+                case "watch-debounce":
+                    options.setWatchDebounceMillis(parseInt(name, value));
+                    break;
+                case "cache-dir":
+                    options.setCacheDir(Paths.get(requireValue(name, value)));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        if (positional.isEmpty() || positional.size() > 2) {
+            throw new IllegalArgumentException("Expected input folder and optional output file name");
+        }
+        // invalid patterns are reported together with the usage
+        options.getInputFilter();
+        if (options.isWatch() && InputRoot.isArchive(positional.get(0))) {
+            throw new IllegalArgumentException("Option --watch expects an input folder, not an archive");
+        }
+        options.folderPath = positional.get(0);
+        if (positional.size() > 1) {
+            options.outputFileName = positional.get(1);
+        }
+        return options;
+    }
+
+    static String requireValue(String name, String value) {
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Option --" + name + " expects a value");
+        }
+        return value;
+    }
+
+    private static boolean parseBoolean(String name, String value) {
+        if (value == null || "true".equals(value)) {
+            return true;
+        } else if ("false".equals(value)) {
+            return false;
+        }
+        throw new IllegalArgumentException("Option --" + name + " expects true or false, got: " + value);
+    }
+
+    private static PdfGenerator.Fonts parseFonts(String name, String value) {
+        try {
+            return PdfGenerator.Fonts.valueOf(requireValue(name, value).toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Option --" + name + " expects shipped, code or system, got: " + value);
+        }
+    }
+
+    private static FileCollector.InputFormat parseInputFormat(String name, String value) {
+        try {
+            return FileCollector.InputFormat.valueOf(requireValue(name, value).toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Option --" + name + " expects html or source, got: " + value);
+        }
+    }
+
+    private static TableOfContent parseTableOfContent(String name, String value) {
+        try {
+            return TableOfContent.valueOf(requireValue(name, value).toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Option --" + name + " expects full, compact or none, got: " + value);
+        }
+    }
+
+    private static Set<Output> parseOutputs(String name, String value) {
+        Set<Output> outputs = EnumSet.noneOf(Output.class);
+        for (String output : requireValue(name, value).split(",")) {
+            try {
+                outputs.add(Output.valueOf(output.trim().toUpperCase().replace('-', '_')));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Option --" + name + " expects pdf, html or package-pdfs, got: " + output);
+            }
+        }
+        return outputs;
+    }
+
+    private static Set<String> parseExtensions(String name, String value) {
+        Set<String> extensions = new LinkedHashSet<>();
+        for (String extension : requireValue(name, value).split(",")) {
+            extension = extension.trim().toLowerCase();
+            if (extension.startsWith(".")) {
+                extension = extension.substring(1);
+            }
+            if (!extension.isEmpty()) {
+                extensions.add(extension);
+            }
+        }
+        if (extensions.isEmpty()) {
+            throw new IllegalArgumentException("Option --" + name + " expects extensions like java,kt, got: " + value);
+        }
+        return extensions;
+    }
+
+    private static PdfOutputProfile parseOutputProfile(String name, String value) {
+        try {
+            return PdfOutputProfile.valueOf(requireValue(name, value).toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Option --" + name + " expects default, fast or small, got: " + value);
+        }
+    }
+
+    /**
+     * @return number of bytes, value is a number with optional k, m or g suffix
+     */
+    private static long parseSize(String name, String value) {
+        String number = requireValue(name, value).toLowerCase();
+        long multiplier = 1;
+        switch (number.charAt(number.length() - 1)) {
+            case 'k':
+                multiplier = 1024L;
+                break;
+            case 'm':
+                multiplier = 1024L * 1024;
+                break;
+            case 'g':
+                multiplier = 1024L * 1024 * 1024;
+                break;
+            default:
+                break;
+        }
+        if (multiplier != 1) {
+            number = number.substring(0, number.length() - 1);
+        }
+        try {
+            return Long.parseLong(number) * multiplier;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option --" + name + " expects a size like 512m, got: " + value);
+        }
+    }
+
+    static int parseInt(String name, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option --" + name + " expects a number, got: " + value);
+        }
+    }
+
+    public String getFolderPath() {
+        return folderPath;
+    }
+
+    public void setFolderPath(String folderPath) {
+        this.folderPath = folderPath;
+    }
+
+    public String getOutputFileName() {
+        return outputFileName;
+    }
+
+    public void setOutputFileName(String outputFileName) {
+        this.outputFileName = outputFileName;
+    }
+
+    public Set<Output> getOutputs() {
+        return outputs;
+    }
+
+    public void setOutputs(Set<Output> outputs) {
+        if (outputs.isEmpty()) {
+            throw new IllegalArgumentException("At least one output is expected");
+        }
+        this.outputs = EnumSet.copyOf(outputs);
+    }
+
+    public boolean isGenerateHtmlFile() {
+        return outputs.contains(Output.HTML);
+    }
+
+    /**
+     * Same as adding or removing {@link Output#HTML} in {@link #setOutputs(Set)}.
+     */
+    public void setGenerateHtmlFile(boolean generateHtmlFile) {
+        if (generateHtmlFile) {
+            outputs.add(Output.HTML);
+        } else {
+            outputs.remove(Output.HTML);
+        }
+    }
+
+    public FileCollector.InputFormat getInputFormat() {
+        return inputFormat;
+    }
+
+    public void setInputFormat(FileCollector.InputFormat inputFormat) {
+        this.inputFormat = inputFormat;
+    }
+
+    /**
+     * @return lower case extensions without dot of files read from source input
+     */
+    public Set<String> getSourceExtensions() {
+        return sourceExtensions;
+    }
+
+    public void setSourceExtensions(Set<String> sourceExtensions) {
+        this.sourceExtensions = sourceExtensions;
+    }
+
+    /**
+     * @return patterns of files to collect, all files are collected when empty
+     */
+    public List<String> getIncludes() {
+        return includes;
+    }
+
+    public void addInclude(String pattern) {
+        includes.add(pattern);
+    }
+
+    /**
+     * @return patterns of folders and files to skip
+     */
+    public List<String> getExcludes() {
+        return excludes;
+    }
+
+    public void addExclude(String pattern) {
+        excludes.add(pattern);
+    }
+
+    /**
+     * @return max size of a collected file in bytes, -1 for no limit
+     */
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    public void setMaxFileSize(long maxFileSize) {
+        if (maxFileSize < -1) {
+            throw new IllegalArgumentException("Max file size should not be negative: " + maxFileSize);
+        }
+        this.maxFileSize = maxFileSize;
+    }
+
+    public InputFilter getInputFilter() {
+        return new InputFilter(includes, excludes, maxFileSize);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads should be positive: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    public boolean isStreamingRewriter() {
+        return streamingRewriter;
+    }
+
+    public void setStreamingRewriter(boolean streamingRewriter) {
+        this.streamingRewriter = streamingRewriter;
+    }
+
+    public Path getCacheDir() {
+        return cacheDir;
+    }
+
+    public void setCacheDir(Path cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    public boolean isShardedPdf() {
+        return shardedPdf;
+    }
+
+    public void setShardedPdf(boolean shardedPdf) {
+        this.shardedPdf = shardedPdf;
+    }
+
+    public int getCodeBlockLines() {
+        return codeBlockLines;
+    }
+
+    public void setCodeBlockLines(int codeBlockLines) {
+        if (codeBlockLines < 0) {
+            throw new IllegalArgumentException("Code block lines should not be negative: " + codeBlockLines);
+        }
+        this.codeBlockLines = codeBlockLines;
+    }
+
+    public TableOfContent getTableOfContent() {
+        return tableOfContent;
+    }
+
+    public void setTableOfContent(TableOfContent tableOfContent) {
+        this.tableOfContent = tableOfContent;
+    }
+
+    public boolean isOutline() {
+        return outline;
+    }
+
+    public void setOutline(boolean outline) {
+        this.outline = outline;
+    }
+
+    public boolean isStripDanglingLinks() {
+        return stripDanglingLinks;
+    }
+
+    public void setStripDanglingLinks(boolean stripDanglingLinks) {
+        this.stripDanglingLinks = stripDanglingLinks;
+    }
+
+    /**
+     * @return bytes of memory for transformed files, -1 for no limit
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public void setMemoryBudget(long memoryBudget) {
+        if (memoryBudget < -1) {
+            throw new IllegalArgumentException("Memory budget should not be negative: " + memoryBudget);
+        }
+        this.memoryBudget = memoryBudget;
+    }
+
+    public PdfGenerator.Fonts getFonts() {
+        return fonts;
+    }
+
+    public void setFonts(PdfGenerator.Fonts fonts) {
+        this.fonts = fonts;
+    }
+
+    public String getBaseUri() {
+        return baseUri;
+    }
+
+    public void setBaseUri(String baseUri) {
+        this.baseUri = baseUri;
+    }
+
+    public String getMedia() {
+        return media;
+    }
+
+    public void setMedia(String media) {
+        this.media = media;
+    }
+
+    public PdfOutputProfile getOutputProfile() {
+        return outputProfile;
+    }
+
+    public void setOutputProfile(PdfOutputProfile outputProfile) {
+        this.outputProfile = outputProfile;
+    }
+
+    public Path getMetricsReport() {
+        return metricsReport;
+    }
+
+    public void setMetricsReport(Path metricsReport) {
+        this.metricsReport = metricsReport;
+    }
+
+    public boolean isWatch() {
+        return watch;
+    }
+
+    public void setWatch(boolean watch) {
+        this.watch = watch;
+    }
+
+    public long getWatchDebounceMillis() {
+        return watchDebounceMillis;
+    }
+
+    public void setWatchDebounceMillis(long watchDebounceMillis) {
+        if (watchDebounceMillis < 0) {
+            throw new IllegalArgumentException("Watch debounce should not be negative: " + watchDebounceMillis);
+        }
+        this.watchDebounceMillis = watchDebounceMillis;
+    }
+
+    /**
+     * @return listeners of the run metrics, metrics are collected only if there is at least one listener or a report file
+     */
+    public List<ConversionListener> getListeners() {
+        return listeners;
+    }
+
+    public void addListener(ConversionListener listener) {
+        listeners.add(listener);
+    }
+}
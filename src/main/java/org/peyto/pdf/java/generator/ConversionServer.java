@@ -0,0 +1,319 @@
+package org.peyto.pdf.java.generator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-running conversion server, taking jobs from a spool directory, so JVM startup and html2pdf initialization
+ * are paid once for many conversions.
+ * <p>
+ * A job is a {@code <name>.job} file in {@code <spoolDir>/incoming} with the command line arguments of
+ * {@link HtmlToPDFConverterApplication}, one per line. Jobs are claimed in name order while the queue has room,
+ * then run by {@code concurrency} workers. State and timings of every job are written to
+ * {@code <spoolDir>/status/<name>.status}, its metrics report to {@code <spoolDir>/status/<name>.metrics.json}
+ * unless the job sets its own, and the job file is moved to {@code done} or {@code failed}.
+ * Server stops after running the queued jobs, once a {@code stop} file appears in the spool directory.
+ * <p>
+ * Jobs with the same pdf options (fonts, base uri, media and output profile) share one {@link PdfGenerator}.
+ */
+public class ConversionServer {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversionServer.class);
+
+    public static final String USAGE = "Usage: ConversionServer <spoolDir> [options]\n" +
+            "Options:\n" +
+            "  --concurrency=N      number of jobs running at the same time (default 1)\n" +
+            "  --queue-size=N       number of claimed jobs waiting for a worker (default 16)\n" +
+            "  --poll-interval=MS   interval of checking for new jobs in milliseconds (default 500)";
+
+    private static final String JOB_SUFFIX = ".job";
+    private static final String STOP_FILE = "stop";
+
+    private final Path incomingDir;
+    private final Path processingDir;
+    private final Path doneDir;
+    private final Path failedDir;
+    private final Path statusDir;
+    private final Path stopFile;
+    private final long pollIntervalMillis;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, PdfGenerator> pdfGenerators = new ConcurrentHashMap<>();
+
+    public ConversionServer(Path spoolDir, int concurrency, int queueSize, long pollIntervalMillis) {
+        this.incomingDir = spoolDir.resolve("incoming");
+        this.processingDir = spoolDir.resolve("processing");
+        this.doneDir = spoolDir.resolve("done");
+        this.failedDir = spoolDir.resolve("failed");
+        this.statusDir = spoolDir.resolve("status");
+        this.stopFile = spoolDir.resolve(STOP_FILE);
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize));
+    }
+
+    public static void main(String[] args) {
+        ConversionServer server;
+        try {
+            server = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(USAGE);
+            System.exit(1);
+            return;
+        }
+        try {
+            server.run();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ConversionServer parse(String[] args) {
+        String spoolDir = null;
+        int concurrency = 1;
+        int queueSize = 16;
+        int pollIntervalMillis = 500;
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                if (spoolDir != null) {
+                    throw new IllegalArgumentException("Expected single spool directory");
+                }
+                spoolDir = arg;
+                continue;
+            }
+            int eq = arg.indexOf('=');
+            String name = eq == -1 ? arg.substring(2) : arg.substring(2, eq);
+            String value = eq == -1 ? null : arg.substring(eq + 1);
+            switch (name) {
+                case "concurrency":
+                    concurrency = ConversionOptions.parseInt(name, ConversionOptions.requireValue(name, value));
+                    break;
+                case "queue-size":
+                    queueSize = ConversionOptions.parseInt(name, ConversionOptions.requireValue(name, value));
+                    break;
+                case "poll-interval":
+                    pollIntervalMillis = ConversionOptions.parseInt(name, ConversionOptions.requireValue(name, value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        if (spoolDir == null) {
+            throw new IllegalArgumentException("Expected spool directory");
+        }
+        if (concurrency < 1 || queueSize < 1 || pollIntervalMillis < 1) {
+            throw new IllegalArgumentException("Concurrency, queue size and poll interval should be positive");
+        }
+        return new ConversionServer(Paths.get(spoolDir), concurrency, queueSize, pollIntervalMillis);
+    }
+
+    public void run() throws IOException, InterruptedException {
+        for (Path dir : new Path[]{incomingDir, processingDir, doneDir, failedDir, statusDir}) {
+            Files.createDirectories(dir);
+        }
+        // Jobs claimed, but not finished by the previous server are run again
+        for (Path jobFile : listJobs(processingDir)) {
+            Files.move(jobFile, incomingDir.resolve(jobFile.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        }
+        // Stop file of the previous server
+        Files.deleteIfExists(stopFile);
+        warmUp();
+        log.info("Waiting for jobs in {}, {} worker(s)", incomingDir, executor.getMaximumPoolSize());
+        try {
+            while (!Files.exists(stopFile)) {
+                claimJobs();
+                Thread.sleep(pollIntervalMillis);
+            }
+            log.info("Stop file found, finishing queued jobs");
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Converts a small document once, so class loading and html2pdf initialization are not paid by the first job.
+     */
+    private void warmUp() throws IOException {
+        long startMillis = System.currentTimeMillis();
+        Path warmUpFile = Files.createTempFile("pdf-java-generator-warm-up", ".pdf");
+        try (OutputDocument warmUpDocument = new OutputDocument()) {
+            warmUpDocument.addClassFragment("<pre>class WarmUp { }</pre>", "WarmUp", "warm-up");
+            pdfGenerator(new ConversionOptions()).generateFile(warmUpFile.toString(), warmUpDocument);
+        } finally {
+            Files.deleteIfExists(warmUpFile);
+        }
+        log.info("Warmed up in {} ms", System.currentTimeMillis() - startMillis);
+    }
+
+    private void claimJobs() throws IOException {
+        for (Path jobFile : listJobs(incomingDir)) {
+            if (executor.getQueue().remainingCapacity() == 0) {
+                // The rest stays in incoming until there is room in the queue
+                return;
+            }
+            Path claimedFile = processingDir.resolve(jobFile.getFileName());
+            try {
+                Files.move(jobFile, claimedFile, StandardCopyOption.ATOMIC_MOVE);
+            } catch (NoSuchFileException | FileAlreadyExistsException e) {
+                log.warn("Unable to claim job {}, skipping it", jobFile, e);
+                continue;
+            }
+            JobStatus status = new JobStatus(jobName(claimedFile));
+            writeStatus(status);
+            executor.execute(() -> runJob(claimedFile, status));
+        }
+    }
+
+    /**
+     * Any failure of the job, errors included, is recorded as FAILED and the job file is moved to failed. Only errors
+     * of the VM (e.g. out of memory) are rethrown then, the worker thread is replaced by the executor.
+     */
+    private void runJob(Path jobFile, JobStatus status) {
+        status.state = "RUNNING";
+        status.startedAtMillis = System.currentTimeMillis();
+        writeStatus(status);
+        Path targetDir = doneDir;
+        VirtualMachineError vmError = null;
+        try {
+            ConversionOptions options = ConversionOptions.parse(readArguments(jobFile));
+            if (options.getMetricsReport() == null) {
+                options.setMetricsReport(statusDir.resolve(status.name + ".metrics.json"));
+            }
+            status.output = options.getOutputFileName() + ".pdf";
+            HtmlToPDFConverterApplication.convert(options, pdfGenerator(options));
+            status.state = "DONE";
+        } catch (Throwable e) {
+            log.error("Job {} failed", status.name, e);
+            status.state = "FAILED";
+            status.error = stackTrace(e);
+            targetDir = failedDir;
+            if (e instanceof VirtualMachineError) {
+                vmError = (VirtualMachineError) e;
+            }
+        }
+        status.finishedAtMillis = System.currentTimeMillis();
+        writeStatus(status);
+        try {
+            Files.move(jobFile, targetDir.resolve(jobFile.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.error("Unable to move job file {} to {}", jobFile, targetDir, e);
+        }
+        log.info("Job {} {} in {} ms, waited {} ms", status.name, status.state,
+                status.finishedAtMillis - status.startedAtMillis, status.startedAtMillis - status.queuedAtMillis);
+        if (vmError != null) {
+            throw vmError;
+        }
+    }
+
+    private PdfGenerator pdfGenerator(ConversionOptions options) {
+        String key = options.getFonts() + "\n" + options.getBaseUri() + "\n" + options.getMedia() + "\n" + options.getOutputProfile();
+        return pdfGenerators.computeIfAbsent(key, k -> new PdfGenerator(options.getFonts(), options.getBaseUri(), options.getMedia(),
+                options.getOutputProfile()));
+    }
+
+    private static String[] readArguments(Path jobFile) throws IOException {
+        List<String> arguments = new ArrayList<>();
+        for (String line : Files.readAllLines(jobFile, StandardCharsets.UTF_8)) {
+            String argument = line.trim();
+            if (!argument.isEmpty() && !argument.startsWith("#")) {
+                arguments.add(argument);
+            }
+        }
+        return arguments.toArray(new String[0]);
+    }
+
+    private static List<Path> listJobs(Path dir) throws IOException {
+        List<Path> jobs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + JOB_SUFFIX)) {
+            for (Path file : files) {
+                jobs.add(file);
+            }
+        }
+        Collections.sort(jobs);
+        return jobs;
+    }
+
+    private static String jobName(Path jobFile) {
+        String fileName = jobFile.getFileName().toString();
+        return fileName.substring(0, fileName.length() - JOB_SUFFIX.length());
+    }
+
+    private static String stackTrace(Throwable e) {
+        StringWriter stackTrace = new StringWriter();
+        e.printStackTrace(new PrintWriter(stackTrace));
+        return stackTrace.toString();
+    }
+
+    /**
+     * Status is written to a temporary file first and then moved, so readers never see a half written one.
+     */
+    private void writeStatus(JobStatus status) {
+        Properties properties = new Properties();
+        properties.setProperty("state", status.state);
+        properties.setProperty("queuedAtMillis", String.valueOf(status.queuedAtMillis));
+        if (status.startedAtMillis > 0) {
+            properties.setProperty("startedAtMillis", String.valueOf(status.startedAtMillis));
+            properties.setProperty("waitMillis", String.valueOf(status.startedAtMillis - status.queuedAtMillis));
+        }
+        if (status.finishedAtMillis > 0) {
+            properties.setProperty("finishedAtMillis", String.valueOf(status.finishedAtMillis));
+            properties.setProperty("runMillis", String.valueOf(status.finishedAtMillis - status.startedAtMillis));
+        }
+        if (status.output != null) {
+            properties.setProperty("output", status.output);
+        }
+        if (status.error != null) {
+            properties.setProperty("error", status.error);
+        }
+        Path statusFile = statusDir.resolve(status.name + ".status");
+        try {
+            Path tempFile = Files.createTempFile(statusDir, status.name, ".tmp");
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                properties.store(out, "Job " + status.name);
+            }
+            Files.move(tempFile, statusFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Unable to write status file {}", statusFile, e);
+        }
+    }
+
+    private static class JobStatus {
+
+        private final String name;
+        private final long queuedAtMillis = System.currentTimeMillis();
+        private volatile String state = "QUEUED";
+        private volatile long startedAtMillis;
+        private volatile long finishedAtMillis;
+        private volatile String output;
+        private volatile String error;
+
+        private JobStatus(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package org.peyto.pdf.java.generator;
+
+import org.peyto.pdf.java.generator.entity.JPackage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Watch mode: converts the input folder, then keeps running and converts it again whenever its files change.
+ * <p>
+ * Every folder of the input is registered in a {@link WatchService}. Events are collected until there are none
+ * for {@link ConversionOptions#getWatchDebounceMillis()}, then only the folders they came from are collected again
+ * into the kept {@link JPackage} tree. Transformed files are reused from the fragment cache (a temporary one, unless
+ * a cache directory is set) and the pdf is always sharded, with shards of unchanged packages reused from a {@link ShardCache},
+ * so a run after a few changed files transforms and lays out only those.
+ * <p>
+ * Every run still costs time proportional to the whole project: every input file is read and hashed to look up
+ * its cache entry, html of every shard is written out and hashed to look up the rendered shard, and all shards
+ * are merged to the pdf again.
+ */
+public class ConversionWatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversionWatcher.class);
+
+    private final ConversionOptions options;
+    private final Path rootFolder;
+    private final PdfGenerator pdfGenerator;
+    // output files are ignored, if they are written to the input folder
+    private final Path outputPrefix;
+    private final Map<WatchKey, Path> watchedFolders = new HashMap<>();
+    private JPackage rootPackage;
+
+    /**
+     * @param options options of every run, watch mode turns on sharded pdf and sets a cache directory if there is none,
+     *                in its own copy of the options
+     */
+    public ConversionWatcher(ConversionOptions options) {
+        this.options = options.copy();
+        this.rootFolder = Paths.get(options.getFolderPath());
+        this.pdfGenerator = new PdfGenerator(options.getFonts(), options.getBaseUri(), options.getMedia(), options.getOutputProfile());
+        this.outputPrefix = normalize(Paths.get(options.getOutputFileName()));
+    }
+
+    /**
+     * Runs until the thread is interrupted. Failed runs are logged, and the next change starts a new one.
+     */
+    public void run() throws IOException, InterruptedException {
+        Path tempDir = Files.createTempDirectory("pdf-java-generator-watch");
+        Thread cleanUp = new Thread(() -> deleteTree(tempDir));
+        Runtime.getRuntime().addShutdownHook(cleanUp);
+        try (WatchService watchService = rootFolder.getFileSystem().newWatchService()) {
+            if (options.getCacheDir() == null) {
+                options.setCacheDir(tempDir.resolve("fragments"));
+            }
+            options.setShardedPdf(true);
+            ShardCache shardCache = new ShardCache(tempDir.resolve("shards"));
+            // Folders are registered before they are scanned, so no change is missed in between
+            registerTree(watchService, rootFolder);
+            convert(() -> rootPackage = FileCollector.collectFiles(options), shardCache);
+            while (true) {
+                log.info("Watching {} for changes", rootFolder);
+                Set<Path> changedFolders = new HashSet<>();
+                boolean overflow = pollEvents(watchService, watchService.take(), changedFolders);
+                WatchKey key;
+                while ((key = watchService.poll(options.getWatchDebounceMillis(), TimeUnit.MILLISECONDS)) != null) {
+                    overflow |= pollEvents(watchService, key, changedFolders);
+                }
+                if (changedFolders.isEmpty() && !overflow) {
+                    continue;
+                }
+                long startMillis = System.currentTimeMillis();
+                boolean fullScan = overflow;
+                convert(() -> updateTree(changedFolders, fullScan), shardCache);
+                log.info("Output regenerated after changes in {} folder(s) in {} ms", changedFolders.size(),
+                        System.currentTimeMillis() - startMillis);
+            }
+        } finally {
+            Runtime.getRuntime().removeShutdownHook(cleanUp);
+            deleteTree(tempDir);
+        }
+    }
+
+    private void convert(Supplier<JPackage> fileCollector, ShardCache shardCache) {
+        try {
+            HtmlToPDFConverterApplication.convert(options, pdfGenerator, input -> fileCollector.get(), shardCache);
+        } catch (IOException | RuntimeException e) {
+            log.error("Conversion failed, waiting for the next change", e);
+        }
+    }
+
+    /**
+     * @return true if events were lost, so changed folders are not known
+     */
+    private boolean pollEvents(WatchService watchService, WatchKey key, Set<Path> changedFolders) throws IOException {
+        Path folder = watchedFolders.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            Path file = folder.resolve((Path) event.context());
+            if (isOutputFile(file)) {
+                continue;
+            }
+            changedFolders.add(folder);
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(file)) {
+                registerTree(watchService, file);
+            }
+        }
+        // Key of a removed folder is not valid any more, its parent gets the event of the removal
+        if (!key.reset()) {
+            watchedFolders.remove(key);
+        }
+        return overflow;
+    }
+
+    private JPackage updateTree(Set<Path> changedFolders, boolean fullScan) {
+        if (fullScan || rootPackage == null) {
+            if (fullScan) {
+                log.warn("Some changes of {} were lost, collecting all files again", rootFolder);
+            }
+            rootPackage = FileCollector.collectFiles(options);
+            return rootPackage;
+        }
+        for (Path folder : changedFolders) {
+            if (!Files.isDirectory(folder)) {
+                // removed, its parent has changed too
+                continue;
+            }
+            // Folder is not in the tree, when it is new or was left empty by the filter, then its nearest collected
+            // parent is collected again, together with the whole new subtree
+            JPackage jPackage = findPackage(folder);
+            while (jPackage == null) {
+                folder = folder.getParent();
+                jPackage = findPackage(folder);
+            }
+            FileCollector.recollectFolder(folder, jPackage, options);
+        }
+        if (options.getInputFilter().isEnabled() && FileCollector.removeEmptyPackages(rootPackage)) {
+            throw new RuntimeException("No files of " + rootFolder + " are left by the include, exclude and size rules");
+        }
+        if (options.getInputFormat() == FileCollector.InputFormat.SOURCE) {
+            FileCollector.setQualifiedNames(rootPackage, "");
+        }
+        return rootPackage;
+    }
+
+    private JPackage findPackage(Path folder) {
+        if (folder.equals(rootFolder)) {
+            return rootPackage;
+        }
+        JPackage jPackage = rootPackage;
+        for (Path name : rootFolder.relativize(folder)) {
+            JPackage childPackage = null;
+            for (JPackage candidate : jPackage.getChildPackages()) {
+                if (candidate.getName().equals(name.toString())) {
+                    childPackage = candidate;
+                    break;
+                }
+            }
+            if (childPackage == null) {
+                return null;
+            }
+            jPackage = childPackage;
+        }
+        return jPackage;
+    }
+
+    private void registerTree(WatchService watchService, Path folder) throws IOException {
+        Files.walkFileTree(folder, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(rootFolder) && !options.getInputFilter().acceptsFolder(rootFolder.relativize(dir))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                watchedFolders.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                log.warn("Unable to watch {}", file, e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private boolean isOutputFile(Path file) {
+        Path normalizedFile = normalize(file);
+        String fileName = normalizedFile.getFileName().toString();
+        return normalizedFile.getParent().equals(outputPrefix.getParent())
+                && fileName.startsWith(outputPrefix.getFileName().toString())
+                && (fileName.endsWith(".pdf") || fileName.endsWith(".html"));
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    private static void deleteTree(Path dir) {
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.deleteIfExists(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    Files.deleteIfExists(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Unable to delete temporary directory {}", dir, e);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.peyto.pdf.java.generator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Common css classes of the output document. Every distinct style gets exactly one class name:
+ * the name it had in the first file declaring it, or a generated one ({@code g0}, {@code g1}, ...),
+ * if that name is already used by another style.
+ */
+class CssStyleRegistry {
+
+    private static final String GENERATED_CLASS_PREFIX = "g";
+
+    private final Map<String, String> stylesByClassName = new HashMap<>();
+    private final Map<String, String> classNamesByStyle = new HashMap<>();
+    private int nextGeneratedIndex = 0;
+
+    /**
+     * @return class name of the style in the output document, which differs from {@code classNameInFile},
+     * if the style is already known under another name or the name is taken by another style
+     */
+    synchronized String register(String classNameInFile, String style) {
+        String className = classNamesByStyle.get(style);
+        if (className != null) {
+            return className;
+        }
+        className = stylesByClassName.containsKey(classNameInFile) ? generateClassName() : classNameInFile;
+        stylesByClassName.put(className, style);
+        classNamesByStyle.put(style, className);
+        return className;
+    }
+
+    /**
+     * @return copy of registered styles, class name -> style
+     */
+    synchronized Map<String, String> getStyles() {
+        return new HashMap<>(stylesByClassName);
+    }
+
+    synchronized int size() {
+        return stylesByClassName.size();
+    }
+
+    private String generateClassName() {
+        String generated;
+        do {
+            generated = GENERATED_CLASS_PREFIX + nextGeneratedIndex++;
+        } while (stylesByClassName.containsKey(generated));
+        return generated;
+    }
+}
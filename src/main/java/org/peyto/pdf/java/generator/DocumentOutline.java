@@ -0,0 +1,58 @@
+package org.peyto.pdf.java.generator;
+
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfOutline;
+import com.itextpdf.kernel.pdf.PdfString;
+import com.itextpdf.kernel.pdf.navigation.PdfDestination;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Native pdf outline (bookmarks), shown by readers as a navigation sidebar. Entries mirror the package hierarchy
+ * and point to the same named destinations as the table of content, but cost no layout, unlike the printed one.
+ * <p>
+ * Entries are added in document order, every one with its depth, the base package being at depth 0.
+ */
+final class DocumentOutline {
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    void add(String title, String destination, int depth) {
+        entries.add(new Entry(title, destination, depth));
+    }
+
+    /**
+     * Destinations are referenced by name, so the outline could be added before html2pdf creates them.
+     * Only the top entry is open, packages are expanded by the reader.
+     */
+    void addTo(PdfDocument pdfDocument) {
+        // outline of the last entry on every depth up to the current one
+        Deque<PdfOutline> parents = new ArrayDeque<>();
+        parents.push(pdfDocument.getOutlines(false));
+        for (Entry entry : entries) {
+            while (parents.size() > entry.depth + 1) {
+                parents.pop();
+            }
+            PdfOutline outline = parents.peek().addOutline(entry.title);
+            outline.addDestination(PdfDestination.makeDestination(new PdfString(entry.destination)));
+            outline.setOpen(entry.depth == 0);
+            parents.push(outline);
+        }
+    }
+
+    private static final class Entry {
+
+        private final String title;
+        private final String destination;
+        private final int depth;
+
+        private Entry(String title, String destination, int depth) {
+            this.title = title;
+            this.destination = destination;
+            this.depth = depth;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package org.peyto.pdf.java.generator;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.jsoup.nodes.Entities;
+import org.jsoup.parser.Parser;
+import org.peyto.pdf.java.generator.entity.HtmlFileSupplier;
+import org.peyto.pdf.java.generator.entity.LinkIndex;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+
+/**
+ * Rewrites a class file of IntelliJ "Export to HTML" in a single pass over its tags, without building a DOM.
+ * Edits are the same as of the Jsoup path of {@link HtmlTransformer}: class anchor in the header table, link to the package
+ * on the package declaration, links rewritten, link names dropped and styles read from the head.
+ * <p>
+ * Only the known shape of the export is handled: styles in the head, body made of the header table and a single
+ * {@code <pre>} with nothing but {@code span} and {@code a} tags in it. {@link #rewrite} returns null for anything else,
+ * so the file is left to Jsoup. Html of the rewritten file renders the same, but is not serialized the same way as by Jsoup.
+ */
+class ExportRewriter {
+
+    private static final int PACKAGE_SPAN_INDEX = 2;
+
+    private final String className;
+    private final LinkIndex linkIndex;
+    private final Set<String> linkTargets = new LinkedHashSet<>();
+    private int linksRewritten;
+    private String currentPackageId;
+
+    ExportRewriter(String className, LinkIndex linkIndex) {
+        this.className = className;
+        this.linkIndex = linkIndex;
+    }
+
+    /**
+     * @return transformed file, or null if the file is not of the known shape
+     */
+    TransformedFile rewrite(String html) {
+        int headEnd = html.indexOf("</head>");
+        int bodyStart = headEnd == -1 ? -1 : tagEnd(html, html.indexOf("<body", headEnd));
+        int tableStart = bodyStart == -1 ? -1 : skipWhitespace(html, bodyStart);
+        if (tableStart == -1 || !html.startsWith("<table", tableStart)) {
+            return null;
+        }
+        int centerStart = tagEnd(html, html.indexOf("<center>", tableStart));
+        int centerEnd = centerStart == -1 ? -1 : html.indexOf("</center>", centerStart);
+        int tableEnd = centerEnd == -1 ? -1 : tagEnd(html, html.indexOf("</table>", centerEnd));
+        int preStart = tableEnd == -1 ? -1 : skipWhitespace(html, tableEnd);
+        if (preStart == -1 || !html.startsWith("<pre>", preStart) || html.substring(tableStart, tableEnd).contains("<a")) {
+            return null;
+        }
+        int preEnd = html.indexOf("</pre>", preStart);
+        if (preEnd == -1 || !isDocumentEnd(html, preEnd + "</pre>".length())) {
+            return null;
+        }
+        String pre = rewritePre(html.substring(preStart + "<pre>".length(), preEnd));
+        if (pre == null) {
+            return null;
+        }
+        String uniqueId = currentPackageId + "-" + className;
+        // Whitespace around the name is dropped, html2pdf places no destination for an anchor starting with it
+        String body = html.substring(tableStart, centerStart) + "<a name=\"" + uniqueId + "\">" + html.substring(centerStart, centerEnd).trim()
+                + "</a>" + html.substring(centerEnd, tableEnd) + "\n<pre>" + pre + "</pre>";
+        return new TransformedFile(uniqueId, HtmlFileSupplier.SourceHtmlType.CLASS, body, parseStyles(html.substring(0, headEnd)),
+                new ArrayList<>(linkTargets));
+    }
+
+    int getLinksRewritten() {
+        return linksRewritten;
+    }
+
+    /**
+     * Same as styles read by Jsoup path, in a map of the same type, so classes are registered in the same order on merge.
+     */
+    private static Map<String, String> parseStyles(String head) {
+        Map<String, String> styles = new HashMap<>();
+        int styleStart = tagEnd(head, head.indexOf("<style"));
+        while (styleStart != -1) {
+            int styleEnd = head.indexOf("</style>", styleStart);
+            if (styleEnd == -1) {
+                styleEnd = head.length();
+            }
+            Matcher matcher = HtmlTransformer.CSS_PATTERN.matcher(head.substring(styleStart, styleEnd));
+            while (matcher.find()) {
+                styles.put(matcher.group(1), matcher.group(2));
+            }
+            styleStart = tagEnd(head, head.indexOf("<style", styleEnd));
+        }
+        return styles;
+    }
+
+    /**
+     * Text is copied as it is, tags are parsed and written again with edited attributes.
+     *
+     * @return rewritten content of {@code <pre>} or null, if it has other tags than expected
+     */
+    private String rewritePre(String pre) {
+        StringBuilder out = new StringBuilder(pre.length() + pre.length() / 8);
+        // names of open tags
+        Deque<String> openTags = new ArrayDeque<>();
+        int topLevelElements = 0;
+        int pos = 0;
+        while (true) {
+            int tagStart = pre.indexOf('<', pos);
+            if (tagStart == -1) {
+                out.append(pre, pos, pre.length());
+                break;
+            }
+            out.append(pre, pos, tagStart);
+            int tagEnd = pre.indexOf('>', tagStart);
+            if (tagEnd == -1) {
+                return null;
+            }
+            pos = tagEnd + 1;
+            if (pre.charAt(tagStart + 1) == '/') {
+                String name = pre.substring(tagStart + 2, tagEnd).trim().toLowerCase();
+                if (openTags.isEmpty() || !openTags.pop().equals(name)) {
+                    return null;
+                }
+                out.append("</").append(name).append('>');
+                continue;
+            }
+            Tag tag = Tag.parse(pre.substring(tagStart + 1, tagEnd));
+            if (tag == null || !(tag.name.equals("span") || tag.name.equals("a")) || (tag.name.equals("a") && openTags.contains("a"))) {
+                return null;
+            }
+            if (openTags.isEmpty() && topLevelElements++ == PACKAGE_SPAN_INDEX) {
+                // Package declaration, the same element as taken by the Jsoup path
+                int spanEnd = pre.indexOf("</span>", pos);
+                if (!tag.name.equals("span") || spanEnd == -1 || pre.substring(pos, spanEnd).indexOf('<') != -1) {
+                    return null;
+                }
+                String packageName = normalizeWhitespace(Parser.unescapeEntities(pre.substring(pos, spanEnd), false));
+                currentPackageId = HtmlTransformer.packageUniqueIdFromName(packageName);
+                if (currentPackageId == null) {
+                    return null;
+                }
+                tag.write(out);
+                out.append("<a href=\"#").append(currentPackageId).append("\">").append(Entities.escape(packageName)).append("</a></span>");
+                pos = spanEnd + "</span>".length();
+                continue;
+            }
+            if (tag.name.equals("a") && currentPackageId == null && tag.get("href") != null) {
+                // links are resolved relative to the package, which is not known before the package declaration
+                return null;
+            }
+            openTags.push(tag.name);
+            if (tag.name.equals("a")) {
+                rewriteLink(tag);
+            }
+            tag.write(out);
+        }
+        return openTags.isEmpty() && currentPackageId != null ? out.toString() : null;
+    }
+
+    /**
+     * Links to files missing in the project are stripped on merge, see {@link LinkResolver}.
+     */
+    private void rewriteLink(Tag link) {
+        link.remove("name");
+        String href = link.get("href");
+        if (href == null) {
+            return;
+        }
+        Pair<String, HtmlFileSupplier.SourceHtmlType> newUniqueLink = linkIndex.resolve(currentPackageId, href);
+        if (newUniqueLink.getRight() != null) {
+            linksRewritten++;
+            linkTargets.add(newUniqueLink.getLeft().substring(1));
+        }
+        link.set("href", newUniqueLink.getLeft());
+    }
+
+    private static String normalizeWhitespace(String text) {
+        return text.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * @return position after the end of the tag starting at {@code tagStart}, or -1
+     */
+    private static int tagEnd(String html, int tagStart) {
+        int tagEnd = tagStart == -1 ? -1 : html.indexOf('>', tagStart);
+        return tagEnd == -1 ? -1 : tagEnd + 1;
+    }
+
+    private static int skipWhitespace(String html, int from) {
+        int pos = from;
+        while (pos < html.length() && Character.isWhitespace(html.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * @return true if there is nothing but closing body and html tags from {@code from}
+     */
+    private static boolean isDocumentEnd(String html, int from) {
+        int pos = skipWhitespace(html, from);
+        if (!html.startsWith("</body>", pos)) {
+            return false;
+        }
+        pos = skipWhitespace(html, pos + "</body>".length());
+        if (html.startsWith("</html>", pos)) {
+            pos = skipWhitespace(html, pos + "</html>".length());
+        }
+        return pos == html.length();
+    }
+
+    /**
+     * Start tag with its attributes in their order.
+     */
+    private static class Tag {
+
+        private final String name;
+        private final List<String> names = new ArrayList<>();
+        private final List<String> values = new ArrayList<>();
+
+        private Tag(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return parsed tag, null if it is not a plain start tag, e.g. a comment or a self-closing tag
+         */
+        private static Tag parse(String text) {
+            int pos = 0;
+            while (pos < text.length() && Character.isLetterOrDigit(text.charAt(pos))) {
+                pos++;
+            }
+            if (pos == 0 || text.endsWith("/")) {
+                return null;
+            }
+            Tag tag = new Tag(text.substring(0, pos).toLowerCase());
+            while (true) {
+                pos = skipWhitespace(text, pos);
+                if (pos == text.length()) {
+                    return tag;
+                }
+                int nameStart = pos;
+                while (pos < text.length() && text.charAt(pos) != '=' && !Character.isWhitespace(text.charAt(pos))) {
+                    pos++;
+                }
+                String attributeName = text.substring(nameStart, pos).toLowerCase();
+                pos = skipWhitespace(text, pos);
+                String value = "";
+                if (pos < text.length() && text.charAt(pos) == '=') {
+                    pos = skipWhitespace(text, pos + 1);
+                    int valueEnd;
+                    if (pos < text.length() && (text.charAt(pos) == '"' || text.charAt(pos) == '\'')) {
+                        valueEnd = text.indexOf(text.charAt(pos), pos + 1);
+                        if (valueEnd == -1) {
+                            return null;
+                        }
+                        value = text.substring(pos + 1, valueEnd);
+                        pos = valueEnd + 1;
+                    } else {
+                        valueEnd = pos;
+                        while (valueEnd < text.length() && !Character.isWhitespace(text.charAt(valueEnd))) {
+                            valueEnd++;
+                        }
+                        value = text.substring(pos, valueEnd);
+                        pos = valueEnd;
+                    }
+                }
+                tag.names.add(attributeName);
+                tag.values.add(Parser.unescapeEntities(value, true));
+            }
+        }
+
+        private String get(String attributeName) {
+            int index = names.indexOf(attributeName);
+            return index == -1 ? null : values.get(index);
+        }
+
+        private void set(String attributeName, String value) {
+            values.set(names.indexOf(attributeName), value);
+        }
+
+        private void remove(String attributeName) {
+            int index = names.indexOf(attributeName);
+            if (index != -1) {
+                names.remove(index);
+                values.remove(index);
+            }
+        }
+
+        /**
+         * Values are always double-quoted, as the class remapping on merge expects.
+         */
+        private void write(StringBuilder out) {
+            out.append('<').append(name);
+            for (int i = 0; i < names.size(); i++) {
+                out.append(' ').append(names.get(i)).append("=\"")
+                        .append(values.get(i).replace("&", "&amp;").replace("\"", "&quot;")).append('"');
+            }
+            out.append('>');
+        }
+    }
+}
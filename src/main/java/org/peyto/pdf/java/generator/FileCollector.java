@@ -5,60 +5,281 @@ import org.peyto.pdf.java.generator.entity.JPackage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class FileCollector {
 
     private static final Logger log = LoggerFactory.getLogger(FileCollector.class);
 
+    /**
+     * Kind of the input folder.
+     */
+    public enum InputFormat {
+        /**
+         * IntelliJ "Export to HTML" output, with index.html of every package
+         */
+        HTML,
+        /**
+         * Source root, e.g. src/main/java, files are highlighted by {@link SourceHighlighter}
+         */
+        SOURCE
+    }
+
     public static JPackage collectHTMLFiles(String rootFolderPath) {
-        File rootFolder = new File(rootFolderPath);
-        if (!rootFolder.exists() || !rootFolder.isDirectory()) {
+        return collectHTMLFiles(rootFolderPath, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Every folder is listed by its own task, subfolders are scanned in parallel by {@code parallelism} threads.
+     */
+    public static JPackage collectHTMLFiles(String rootFolderPath, int parallelism) {
+        return collectFiles(rootFolderPath, parallelism, FileCollector::collectHTMLFile, InputFilter.ALL);
+    }
+
+    /**
+     * Same as {@link #collectHTMLFiles(String)} collecting only files accepted by {@code filter}, packages left without
+     * files are removed.
+     */
+    public static JPackage collectHTMLFiles(String rootFolderPath, InputFilter filter) {
+        return collectFiles(rootFolderPath, Runtime.getRuntime().availableProcessors(), FileCollector::collectHTMLFile, filter);
+    }
+
+    /**
+     * Collects source files with one of the {@code extensions} (without dot, e.g. java), every folder is a package.
+     */
+    public static JPackage collectSourceFiles(String rootFolderPath, Set<String> extensions) {
+        return collectSourceFiles(rootFolderPath, extensions, InputFilter.ALL);
+    }
+
+    public static JPackage collectSourceFiles(String rootFolderPath, Set<String> extensions, InputFilter filter) {
+        JPackage rootPackage = collectFiles(rootFolderPath, Runtime.getRuntime().availableProcessors(), sourceFileHandler(extensions), filter);
+        setQualifiedNames(rootPackage, "");
+        return rootPackage;
+    }
+
+    /**
+     * Collects files of the input folder, in the format and with the filter of {@code options}.
+     */
+    static JPackage collectFiles(ConversionOptions options) {
+        return options.getInputFormat() == InputFormat.SOURCE
+                ? collectSourceFiles(options.getFolderPath(), options.getSourceExtensions(), options.getInputFilter())
+                : collectHTMLFiles(options.getFolderPath(), options.getInputFilter());
+    }
+
+    /**
+     * Same as {@link #collectFiles(ConversionOptions)} for an input folder, which could be a folder of an archive.
+     * Files of an archive are entries of its zip file system, they are read from the archive later, while it is open.
+     */
+    static JPackage collectFiles(InputRoot input, ConversionOptions options) {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        if (options.getInputFormat() != InputFormat.SOURCE) {
+            return collectFiles(input.getFolder(), input.getName(), parallelism, FileCollector::collectHTMLFile, options.getInputFilter());
+        }
+        JPackage rootPackage = collectFiles(input.getFolder(), input.getName(), parallelism, sourceFileHandler(options.getSourceExtensions()),
+                options.getInputFilter());
+        setQualifiedNames(rootPackage, "");
+        return rootPackage;
+    }
+
+    /**
+     * Collects files of one folder of an already collected tree again, after files of the folder were added or removed.
+     * Packages of the subfolders, which still exist, are kept as they are, new subfolders are collected with all their files.
+     * Neither qualified names of source input (see {@link #setQualifiedNames(JPackage, String)}) nor empty packages
+     * (see {@link #removeEmptyPackages(JPackage)}) are updated.
+     */
+    static void recollectFolder(Path folder, JPackage jPackage, ConversionOptions options) {
+        Map<String, JPackage> knownPackages = new HashMap<>();
+        for (JPackage childPackage : jPackage.getChildPackages()) {
+            knownPackages.put(childPackage.getName(), childPackage);
+        }
+        jPackage.clear();
+        FileHandler fileHandler = options.getInputFormat() == InputFormat.SOURCE
+                ? sourceFileHandler(options.getSourceExtensions())
+                : FileCollector::collectHTMLFile;
+        Scan scan = new Scan(Paths.get(options.getFolderPath()), fileHandler, options.getInputFilter());
+        invoke(new CollectFilesTask(scan, folder, jPackage, knownPackages), Runtime.getRuntime().availableProcessors());
+    }
+
+    private static JPackage collectFiles(String rootFolderPath, int parallelism, FileHandler fileHandler, InputFilter filter) {
+        Path rootFolder = Paths.get(rootFolderPath);
+        if (!Files.isDirectory(rootFolder)) {
             throw new RuntimeException("Invalid root folder path or the folder does not exist.");
         }
-        JPackage rootPackage = new JPackage(rootFolder.getName());
-        collectHTMLFilesRecursive(rootFolder, rootPackage);
+        return collectFiles(rootFolder, rootFolder.toFile().getName(), parallelism, fileHandler, filter);
+    }
+
+    private static JPackage collectFiles(Path rootFolder, String rootName, int parallelism, FileHandler fileHandler, InputFilter filter) {
+        JPackage rootPackage = new JPackage(rootName);
+        invoke(new CollectFilesTask(new Scan(rootFolder, fileHandler, filter), rootFolder, rootPackage, Collections.emptyMap()), parallelism);
+        if (filter.isEnabled() && removeEmptyPackages(rootPackage)) {
+            throw new RuntimeException("No files of " + rootFolder + " are left by the include, exclude and size rules");
+        }
         return rootPackage;
     }
 
-    private static void collectHTMLFilesRecursive(File folder, JPackage parentPackage) {
-        File[] files = folder.listFiles();
+    private static void invoke(CollectFilesTask task, int parallelism) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(task);
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-        if (files != null) {
-            for (File file : files) {
-                if (file.isDirectory()) {
-                    JPackage jPackage = new JPackage(file.getName());
-                    parentPackage.addChildPackage(jPackage);
-                    // Recursively explore subfolders
-                    collectHTMLFilesRecursive(file, jPackage);
-                } else if (file.isFile() && file.getName().toLowerCase().endsWith(".html")) {
-                    if (file.getName().toLowerCase().endsWith("index.html")) {
-                        parentPackage.setHtmlFile(file);
-                    } else {
-                        // Add HTML files to the list
-                        if (file.getName().endsWith(".java.html")) {
-                            String javaClassName = file.getName().substring(0, file.getName().length() - 10);
-                            JClass jClass = new JClass(javaClassName, file);
-                            parentPackage.addChildClass(jClass);
-                        } else if (file.getName().endsWith(".html")) {
-                            // any other code file, e.g., js file, py file
-                            String fileWithExtensionName = file.getName().substring(0, file.getName().length() - 5);
-                            int lastExt = fileWithExtensionName.lastIndexOf(".");
-                            if (lastExt != -1) {
-                                String name = fileWithExtensionName.substring(0, lastExt - 1);
-                                JClass jClass = new JClass(name, file);
-                                parentPackage.addChildClass(jClass);
-                            } else {
-                                log.error("Unknown file without extension: {}", file.getAbsolutePath());
-                            }
-                        } else {
-                            log.error("Unknown file without html suffix: {}", file.getAbsolutePath());
+    /**
+     * Removes packages without classes in their whole subtree, which are left when files are filtered out.
+     *
+     * @return true if {@code jPackage} itself has no classes left
+     */
+    static boolean removeEmptyPackages(JPackage jPackage) {
+        jPackage.getChildPackages().removeIf(FileCollector::removeEmptyPackages);
+        return jPackage.getChildClasses().isEmpty() && jPackage.getChildPackages().isEmpty();
+    }
+
+    private static FileHandler sourceFileHandler(Set<String> extensions) {
+        return (file, parentPackage) -> collectSourceFile(file, parentPackage, extensions);
+    }
+
+    private interface FileHandler {
+
+        void collect(Path file, JPackage parentPackage);
+    }
+
+    /**
+     * Settings shared by all tasks of one scan.
+     */
+    private static class Scan {
+
+        private final Path rootFolder;
+        private final FileHandler fileHandler;
+        private final InputFilter filter;
+
+        private Scan(Path rootFolder, FileHandler fileHandler, InputFilter filter) {
+            this.rootFolder = rootFolder;
+            this.fileHandler = fileHandler;
+            this.filter = filter;
+        }
+    }
+
+    private static class CollectFilesTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Scan scan;
+        private final Path folder;
+        private final JPackage parentPackage;
+        // already collected packages of subfolders by name, which are added without scanning them again
+        private final Map<String, JPackage> knownPackages;
+
+        private CollectFilesTask(Scan scan, Path folder, JPackage parentPackage, Map<String, JPackage> knownPackages) {
+            this.scan = scan;
+            this.folder = folder;
+            this.parentPackage = parentPackage;
+            this.knownPackages = knownPackages;
+        }
+
+        @Override
+        protected void compute() {
+            List<CollectFilesTask> subfolderTasks = new ArrayList<>();
+            try {
+                // With max depth 1 every entry of the folder, including subfolders, is visited as a file,
+                // together with the attributes read while listing, so no extra stat calls are needed
+                Files.walkFileTree(folder, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        String fileName = file.getFileName().toString();
+                        if (attrs.isDirectory() && !scan.filter.acceptsFolder(scan.rootFolder.relativize(file))) {
+                            log.debug("Skipping excluded folder {}", file);
+                        } else if (attrs.isDirectory() && knownPackages.containsKey(fileName)) {
+                            parentPackage.addChildPackage(knownPackages.get(fileName));
+                        } else if (attrs.isDirectory()) {
+                            JPackage jPackage = new JPackage(fileName);
+                            parentPackage.addChildPackage(jPackage);
+                            // Explore subfolders in parallel
+                            subfolderTasks.add(new CollectFilesTask(scan, file, jPackage, Collections.emptyMap()));
+                        } else if (attrs.isRegularFile() && scan.filter.acceptsFile(scan.rootFolder.relativize(file), attrs.size())) {
+                            scan.fileHandler.collect(file, parentPackage);
                         }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        log.error("Unable to read {}", file, e);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                log.error("Unable to list folder {}", folder, e);
+            }
+            invokeAll(subfolderTasks);
+        }
+    }
+
+    private static void collectHTMLFile(Path file, JPackage parentPackage) {
+        String fileName = file.getFileName().toString();
+        if (fileName.toLowerCase().endsWith(".html")) {
+            if (fileName.toLowerCase().endsWith("index.html")) {
+                parentPackage.setHtmlFile(file);
+            } else {
+                // Add HTML files to the list
+                if (fileName.endsWith(".java.html")) {
+                    String javaClassName = fileName.substring(0, fileName.length() - 10);
+                    JClass jClass = new JClass(javaClassName, file);
+                    parentPackage.addChildClass(jClass);
+                } else if (fileName.endsWith(".html")) {
+                    // any other code file, e.g., js file, py file
+                    String fileWithExtensionName = fileName.substring(0, fileName.length() - 5);
+                    int lastExt = fileWithExtensionName.lastIndexOf(".");
+                    if (lastExt != -1) {
+                        String name = fileWithExtensionName.substring(0, lastExt - 1);
+                        JClass jClass = new JClass(name, file);
+                        parentPackage.addChildClass(jClass);
+                    } else {
+                        log.error("Unknown file without extension: {}", file.toAbsolutePath());
                     }
+                } else {
+                    log.error("Unknown file without html suffix: {}", file.toAbsolutePath());
                 }
             }
         }
     }
 
+    private static void collectSourceFile(Path file, JPackage parentPackage, Set<String> extensions) {
+        String fileName = file.getFileName().toString();
+        int lastExt = fileName.lastIndexOf('.');
+        if (lastExt > 0 && extensions.contains(fileName.substring(lastExt + 1).toLowerCase(Locale.ROOT))) {
+            parentPackage.addChildClass(new JClass(fileName.substring(0, lastExt), file));
+        }
+    }
 
+    /**
+     * Package names of source files come from folders, there is no package page to take them from.
+     */
+    static void setQualifiedNames(JPackage jPackage, String qualifiedName) {
+        jPackage.setQualifiedName(qualifiedName);
+        for (JClass jClass : jPackage.getChildClasses()) {
+            jClass.setPackageName(qualifiedName);
+        }
+        for (JPackage childPackage : jPackage.getChildPackages()) {
+            setQualifiedNames(childPackage, qualifiedName.isEmpty() ? childPackage.getName() : qualifiedName + "." + childPackage.getName());
+        }
+    }
 }
@@ -0,0 +1,194 @@
+package org.peyto.pdf.java.generator;
+
+import org.peyto.pdf.java.generator.entity.HtmlFileSupplier;
+import org.peyto.pdf.java.generator.entity.ProjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistent cache of transformed files, so unchanged files are not parsed and transformed again on the next run.
+ * <p>
+ * Entry key is a hash of the file content together with everything else the transformation result depends on
+ * (file path and type, base package, {@link HtmlTransformer#TRANSFORMER_VERSION} and the variant of the transformation).
+ * Entries hold the file before the order dependent merge step, i.e. with its own css class names and styles and with links
+ * not yet resolved against the other files of the project, so adding or removing a file keeps the entries of the others.
+ * <p>
+ * One cache directory is meant to serve one project: entries not used by the last run are removed by {@link #prune()}.
+ */
+class FragmentCache {
+
+    private static final Logger log = LoggerFactory.getLogger(FragmentCache.class);
+
+    private static final String ENTRY_SUFFIX = ".fragment";
+
+    private final Path cacheDir;
+    private final byte[] variantDigest;
+    private final Set<String> usedKeys = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * @param variant everything else the transformation depends on besides the file, e.g. enabled options
+     */
+    FragmentCache(Path cacheDir, String variant) {
+        this.cacheDir = cacheDir;
+        this.variantDigest = sha256().digest(variant.getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.createDirectories(cacheDir);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to create cache directory " + cacheDir, e);
+        }
+    }
+
+    /**
+     * Ids of source files come from their folders, so the path of the file is a part of the key, not only its name.
+     */
+    String key(String basePackage, ProjectNode node, byte[] content) {
+        MessageDigest digest = sha256();
+        digest.update(HtmlTransformer.TRANSFORMER_VERSION.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(node.sourceHtmlType().name().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        String path = node.getRelativePath();
+        digest.update((path != null ? path : node.getName()).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(basePackage.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(variantDigest);
+        digest.update(content);
+        return hex(digest.digest());
+    }
+
+    /**
+     * @return cached transformed file or null, if there is no (readable) entry for the key
+     */
+    TransformedFile get(String key) {
+        usedKeys.add(key);
+        Path entryFile = entryFile(key);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entryFile)))) {
+            HtmlFileSupplier.SourceHtmlType sourceHtmlType = HtmlFileSupplier.SourceHtmlType.valueOf(in.readUTF());
+            String uniqueId = in.readBoolean() ? in.readUTF() : null;
+            int stylesCount = in.readInt();
+            Map<String, String> styles = new LinkedHashMap<>();
+            for (int i = 0; i < stylesCount; i++) {
+                styles.put(in.readUTF(), in.readUTF());
+            }
+            int linkTargetsCount = in.readInt();
+            List<String> linkTargets = new ArrayList<>(linkTargetsCount);
+            for (int i = 0; i < linkTargetsCount; i++) {
+                linkTargets.add(in.readUTF());
+            }
+            byte[] html = new byte[in.readInt()];
+            in.readFully(html);
+            hits.incrementAndGet();
+            return new TransformedFile(uniqueId, sourceHtmlType, new String(html, StandardCharsets.UTF_8), styles, linkTargets);
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return null;
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Ignoring broken cache entry {}", entryFile, e);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    void put(String key, TransformedFile transformedFile) {
+        Path entryFile = entryFile(key);
+        try {
+            Files.createDirectories(entryFile.getParent());
+            // Write to temporary file first, so a concurrent or interrupted run never sees half written entry
+            Path tempFile = Files.createTempFile(entryFile.getParent(), key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeUTF(transformedFile.getSourceHtmlType().name());
+                out.writeBoolean(transformedFile.getUniqueId() != null);
+                if (transformedFile.getUniqueId() != null) {
+                    out.writeUTF(transformedFile.getUniqueId());
+                }
+                out.writeInt(transformedFile.getInternalStyles().size());
+                for (Map.Entry<String, String> style : transformedFile.getInternalStyles().entrySet()) {
+                    out.writeUTF(style.getKey());
+                    out.writeUTF(style.getValue());
+                }
+                out.writeInt(transformedFile.getLinkTargets().size());
+                for (String linkTarget : transformedFile.getLinkTargets()) {
+                    out.writeUTF(linkTarget);
+                }
+                byte[] html = transformedFile.getHtml().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(html.length);
+                out.write(html);
+            }
+            Files.move(tempFile, entryFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Cache is only an optimization, the run itself is not affected
+            log.warn("Unable to write cache entry {}", entryFile, e);
+        }
+    }
+
+    /**
+     * Removes entries, which were not requested since this cache was opened.
+     */
+    void prune() {
+        int removed = 0;
+        try (DirectoryStream<Path> buckets = Files.newDirectoryStream(cacheDir)) {
+            for (Path bucket : buckets) {
+                if (!Files.isDirectory(bucket)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(bucket)) {
+                    for (Path entry : entries) {
+                        String fileName = entry.getFileName().toString();
+                        String key = fileName.endsWith(ENTRY_SUFFIX) ? fileName.substring(0, fileName.length() - ENTRY_SUFFIX.length()) : null;
+                        if (key == null || !usedKeys.contains(key)) {
+                            Files.deleteIfExists(entry);
+                            removed++;
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Unable to prune cache directory {}", cacheDir, e);
+        }
+        log.info("Cache {}: {} hits, {} misses, {} stale entries removed", cacheDir, hits.get(), misses.get(), removed);
+    }
+
+    private Path entryFile(String key) {
+        return cacheDir.resolve(key.substring(0, 2)).resolve(key + ENTRY_SUFFIX);
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.peyto.pdf.java.generator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Html fragments in order of adding. Fragments are kept in memory while the shared {@link Budget} allows,
+ * all the following ones are appended to a temporary spill file and read back one at a time.
+ * <p>
+ * Fragments are added from a single thread, but could be read by many threads once adding is finished.
+ */
+class FragmentStore implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(FragmentStore.class);
+
+    private final Budget budget;
+    private final List<String> inMemory = new ArrayList<>();
+    // offsets of spilled fragments in the spill file, with the end of the last one at spilledCount
+    private long[] spilledOffsets = new long[]{0};
+    private int spilledCount = 0;
+    private Path spillFile;
+    private FileChannel spillChannel;
+    private OutputStream spillOutput;
+    private boolean flushed = true;
+
+    /**
+     * @param budget memory available for fragments, null for no limit
+     */
+    FragmentStore(Budget budget) {
+        this.budget = budget;
+    }
+
+    void add(String fragment) {
+        if (spilledCount == 0 && (budget == null || budget.reserve(2L * fragment.length()))) {
+            inMemory.add(fragment);
+            return;
+        }
+        try {
+            if (spillFile == null) {
+                openSpillFile();
+            }
+            byte[] bytes = fragment.getBytes(StandardCharsets.UTF_8);
+            spillOutput.write(bytes);
+            flushed = false;
+            if (spilledCount + 1 == spilledOffsets.length) {
+                spilledOffsets = Arrays.copyOf(spilledOffsets, spilledOffsets.length * 2);
+            }
+            spilledOffsets[spilledCount + 1] = spilledOffsets[spilledCount] + bytes.length;
+            spilledCount++;
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write to spill file " + spillFile, e);
+        }
+    }
+
+    private void openSpillFile() throws IOException {
+        spillFile = Files.createTempFile("pdf-java-generator-fragments", ".spill");
+        spillFile.toFile().deleteOnExit();
+        spillChannel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        spillOutput = new BufferedOutputStream(Channels.newOutputStream(spillChannel));
+        log.info("Memory budget is exhausted after {} fragments, the rest is written to {}", inMemory.size(), spillFile);
+    }
+
+    int size() {
+        return inMemory.size() + spilledCount;
+    }
+
+    /**
+     * @return fragments from {@code from} (inclusive) to {@code to} (exclusive), spilled ones are read on demand
+     */
+    Iterator<String> iterator(int from, int to) {
+        flush();
+        return new Iterator<String>() {
+            private int next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+        };
+    }
+
+    private synchronized void flush() {
+        if (!flushed) {
+            try {
+                spillOutput.flush();
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to write to spill file " + spillFile, e);
+            }
+            flushed = true;
+        }
+    }
+
+    private String get(int index) {
+        if (index < inMemory.size()) {
+            return inMemory.get(index);
+        }
+        int spilledIndex = index - inMemory.size();
+        long offset = spilledOffsets[spilledIndex];
+        ByteBuffer buffer = ByteBuffer.allocate((int) (spilledOffsets[spilledIndex + 1] - offset));
+        try {
+            // positional reads don't change the channel position, so readers don't interfere
+            while (buffer.hasRemaining()) {
+                int read = spillChannel.read(buffer, offset + buffer.position());
+                if (read < 0) {
+                    throw new IOException("Unexpected end of spill file");
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read spill file " + spillFile, e);
+        }
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        if (spillFile == null) {
+            return;
+        }
+        try {
+            spillOutput.close();
+            Files.deleteIfExists(spillFile);
+        } catch (IOException e) {
+            log.warn("Unable to delete spill file {}", spillFile, e);
+        }
+        spillFile = null;
+    }
+
+    /**
+     * Memory, shared by the stores of one document.
+     */
+    static class Budget {
+
+        private long remaining;
+
+        Budget(long bytes) {
+            this.remaining = bytes;
+        }
+
+        synchronized boolean reserve(long bytes) {
+            if (bytes > remaining) {
+                return false;
+            }
+            remaining -= bytes;
+            return true;
+        }
+    }
+}
@@ -2,79 +2,200 @@ package org.peyto.pdf.java.generator;
 
 import org.peyto.pdf.java.generator.entity.JPackage;
 import org.peyto.pdf.java.generator.entity.JavaProject;
+import org.peyto.pdf.java.generator.metrics.ConversionListener;
+import org.peyto.pdf.java.generator.metrics.ConversionMetrics;
+import org.peyto.pdf.java.generator.metrics.JsonReportWriter;
+import org.peyto.pdf.java.generator.metrics.Phase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class HtmlToPDFConverterApplication {
 
     private static final Logger log = LoggerFactory.getLogger(HtmlTransformer.class);
 
     public static void main(String[] args) {
-        if (args.length < 1) {
-            System.out.println("Usage: HtmlToPDFConverterApplication <inputFolderPath> [outputFileName without extension]");
+        ConversionOptions options;
+        try {
+            options = ConversionOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(ConversionOptions.USAGE);
             System.exit(1);
+            return;
         }
 
-        String folderPath = args[0];
-        String outputFileName = args.length > 1 ? args[1] : "output";
-
-        checkFolderExists(folderPath);
-        process(folderPath, outputFileName, false);
+        process(options);
     }
 
-    private static void process(String folderPath, String outputFileName, boolean generateHtmlFile) {
+    private static void process(ConversionOptions options) {
         try {
-            log.info("Starting processing [{}] to {}.pdf{}", folderPath, outputFileName, generateHtmlFile ? ", with html" : "");
-            long startMillis = System.currentTimeMillis();
-            JPackage files = FileCollector.collectHTMLFiles(folderPath);
-            JavaProject parsedJavaProject = new JavaProject(files);
-
-            log.info("Found total {} files in {} packages. Starting processing...", parsedJavaProject.getNumberOfClasses(), parsedJavaProject.getNumberOfPackages());
-
-            // Perform HTML parsing and transformation to single document
-            String outputDocumentHtml = HtmlTransformer.processHTMLFiles(parsedJavaProject);
-            log.info("Html files processed and transformed in {} ms", delta(startMillis));
-
-            long startGenerationMillis = System.currentTimeMillis();
-            if (generateHtmlFile) {
-                saveHtmlAsFile(outputFileName + ".html", outputDocumentHtml);
+            if (options.isWatch()) {
+                new ConversionWatcher(options).run();
+            } else {
+                convert(options);
             }
-            // create pdf file from html file
-            PdfGenerator.generateFile(outputFileName + ".pdf", outputDocumentHtml);
-            log.info("Pdf file {} generated in {} ms. {}", outputFileName + ".pdf", delta(startGenerationMillis),
-                    generateHtmlFile ? "Html file " + outputFileName + ".html generated. " : "");
-            log.info("Finished. App took total {} ms.", delta(startMillis));
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    private static long delta(long startMillis) {
-        return System.currentTimeMillis() - startMillis;
+    /**
+     * Single conversion run, errors are thrown to the caller, so it could be run many times in one JVM.
+     */
+    public static void convert(ConversionOptions options) throws IOException {
+        convert(options, new PdfGenerator(options.getFonts(), options.getBaseUri(), options.getMedia(), options.getOutputProfile()));
     }
 
-    private static void checkFolderExists(String folderPath) {
-        // Check if the specified folder exists
-        File folder = new File(folderPath);
-        if (!folder.exists() || !folder.isDirectory()) {
-            throw new RuntimeException("The specified folder does not exist " + folderPath);
+    /**
+     * Same as {@link #convert(ConversionOptions)} using already created {@code pdfGenerator}, pdf options are ignored.
+     */
+    public static void convert(ConversionOptions options, PdfGenerator pdfGenerator) throws IOException {
+        convert(options, pdfGenerator, input -> FileCollector.collectFiles(input, options), null);
+    }
+
+    /**
+     * The input folder (or archive) stays open until the outputs are written, as files are read while they are transformed.
+     *
+     * @param fileCollector collects the tree of input files of the input folder, recorded as {@link Phase#SCAN}
+     * @param shardCache shards rendered by the previous runs, used with sharded pdf only, may be null
+     */
+    static void convert(ConversionOptions options, PdfGenerator pdfGenerator, Function<InputRoot, JPackage> fileCollector,
+                        ShardCache shardCache) throws IOException {
+        String folderPath = options.getFolderPath();
+        try (InputRoot input = InputRoot.open(folderPath)) {
+            convertInput(options, pdfGenerator, () -> fileCollector.apply(input), shardCache);
         }
     }
 
-    private static void saveHtmlAsFile(String fileName, String outerHtml) {
+    private static void convertInput(ConversionOptions options, PdfGenerator pdfGenerator, Supplier<JPackage> fileCollector,
+                                     ShardCache shardCache) throws IOException {
+        String folderPath = options.getFolderPath();
+        String outputFileName = options.getOutputFileName();
+        List<ConversionListener> listeners = new ArrayList<>(options.getListeners());
+        if (options.getMetricsReport() != null) {
+            listeners.add(new JsonReportWriter(options.getMetricsReport()));
+        }
+        ConversionMetrics metrics = ConversionMetrics.start(folderPath, outputFileName + ".pdf", listeners);
+        log.info("Starting processing [{}] to {} ({})", folderPath, outputFileName, options.getOutputs());
+        long startMillis = System.currentTimeMillis();
+        long scanStart = metrics.now();
+        JavaProject parsedJavaProject = new JavaProject(fileCollector.get());
+        metrics.phaseFinished(Phase.SCAN, scanStart);
+
+        log.info("Found total {} files in {} packages. Starting processing using {} thread(s)...",
+                parsedJavaProject.getNumberOfClasses(), parsedJavaProject.getNumberOfPackages(), options.getThreads());
+
+        // Perform HTML parsing and transformation to single document
+        try (OutputDocument outputDocument = HtmlTransformer.processHTMLFiles(parsedJavaProject, options, metrics)) {
+            log.info("Html files processed and transformed in {} ms", delta(startMillis));
+            writeOutputs(options, pdfGenerator, outputDocument, metrics, shardCache);
+        }
+        log.info("Finished. App took total {} ms.", delta(startMillis));
+        if (metrics.isEnabled()) {
+            Path pdfFile = Paths.get(outputFileName + ".pdf");
+            metrics.runFinished(pdfGenerator.getOutputProfile().name().toLowerCase(),
+                    options.getOutputs().contains(ConversionOptions.Output.PDF) ? Files.size(pdfFile) : 0);
+        }
+    }
+
+    /**
+     * Every output file is written by its own task, up to {@code threads} of them at the same time,
+     * all reading the same transformed document. Only the combined pdf is recorded in metrics.
+     */
+    private static void writeOutputs(ConversionOptions options, PdfGenerator pdfGenerator, OutputDocument outputDocument,
+                                     ConversionMetrics metrics, ShardCache shardCache) throws IOException {
+        String outputFileName = options.getOutputFileName();
+        Set<ConversionOptions.Output> outputs = options.getOutputs();
+        // output file name -> task writing it
+        Map<String, Callable<Void>> tasks = new LinkedHashMap<>();
+        if (outputs.contains(ConversionOptions.Output.PDF)) {
+            tasks.put(outputFileName + ".pdf", () -> {
+                if (options.isShardedPdf()) {
+                    pdfGenerator.generateShardedFile(outputFileName + ".pdf", outputDocument, options.getThreads(), metrics, shardCache);
+                } else {
+                    pdfGenerator.generateFile(outputFileName + ".pdf", outputDocument, metrics);
+                }
+                return null;
+            });
+        }
+        if (outputs.contains(ConversionOptions.Output.PACKAGE_PDFS)) {
+            for (String section : outputDocument.getSections()) {
+                String packageFileName = outputFileName + "-" + section + ".pdf";
+                tasks.put(packageFileName, () -> {
+                    pdfGenerator.generateFile(packageFileName, outputDocument.packageDocument(section));
+                    return null;
+                });
+            }
+        }
+        if (outputs.contains(ConversionOptions.Output.HTML)) {
+            tasks.put(outputFileName + ".html", () -> {
+                saveHtmlAsFile(outputFileName + ".html", outputDocument);
+                return null;
+            });
+        }
+        log.info("Writing {} file(s) using {} thread(s), {} pdf output profile", tasks.size(), Math.min(options.getThreads(), tasks.size()),
+                pdfGenerator.getOutputProfile().name().toLowerCase());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(options.getThreads(), tasks.size()));
         try {
-            FileOutputStream outputStream = new FileOutputStream(fileName);
-            byte[] strToBytes = outerHtml.getBytes();
-            outputStream.write(strToBytes);
+            List<Future<?>> writtenFiles = new ArrayList<>();
+            for (Map.Entry<String, Callable<Void>> task : tasks.entrySet()) {
+                writtenFiles.add(executor.submit(() -> {
+                    long startMillis = System.currentTimeMillis();
+                    task.getValue().call();
+                    log.info("File {} ({} KB) written in {} ms", task.getKey(), Files.size(Paths.get(task.getKey())) / 1024, delta(startMillis));
+                    return null;
+                }));
+            }
+            for (Future<?> writtenFile : writtenFiles) {
+                writtenFile.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while writing output files", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Error writing output files", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static long delta(long startMillis) {
+        return System.currentTimeMillis() - startMillis;
+    }
 
-            outputStream.close();
-        } catch (Exception e) {
-            log.error("Error writing html file", e);
+    /**
+     * Document is streamed part by part, encoded as UTF-8 whatever the platform charset is.
+     */
+    private static void saveHtmlAsFile(String fileName, OutputDocument outputDocument) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            outputDocument.writeTo(writer);
         }
     }
 
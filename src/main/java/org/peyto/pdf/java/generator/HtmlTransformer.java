@@ -1,17 +1,31 @@
 package org.peyto.pdf.java.generator;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Entities;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
 import org.jsoup.select.Elements;
 import org.peyto.pdf.java.generator.entity.HtmlFileSupplier;
 import org.peyto.pdf.java.generator.entity.JavaProject;
-
-import java.io.File;
+import org.peyto.pdf.java.generator.entity.LinkIndex;
+import org.peyto.pdf.java.generator.entity.ProjectNode;
+import org.peyto.pdf.java.generator.metrics.ConversionMetrics;
+import org.peyto.pdf.java.generator.metrics.FileMetrics;
+import org.peyto.pdf.java.generator.metrics.Phase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -21,64 +35,358 @@ import static org.peyto.pdf.java.generator.entity.HtmlFileSupplier.SourceHtmlTyp
 
 public class HtmlTransformer {
 
-    private static final Pattern CSS_PATTERN = Pattern.compile("\\.\\s*(.*?)\\s*\\{\\s*(.*?)\\s*\\}");
+    private static final Logger log = LoggerFactory.getLogger(HtmlTransformer.class);
+
+    static final Pattern CSS_PATTERN = Pattern.compile("\\.\\s*(.*?)\\s*\\{\\s*(.*?)\\s*\\}");
+
+    private static final Pattern SPAN_CLASS_PATTERN = Pattern.compile("<span([^>]*?) class=\"([^\"]*)\"");
 
-    private static final String PAGE_BREAK_DIV_TEMPLATE = "<div class=\"page-break\"></div> \n";
+    private static final int IN_FLIGHT_FILES_PER_THREAD = 4;
 
-    public static String processHTMLFiles(JavaProject parsedJavaProject) throws IOException {
-        Document outputDocument = generateBaseHtmlTemplate();
+    private static final int DANGLING_LINKS_LOGGED_PER_FILE = 10;
+
+    // Non-breaking spaces, serialized as &nbsp;
+    private static final String INDENT = "\u00a0\u00a0\u00a0\u00a0";
+    private static final String TOC_INDENT = "\u00a0\u00a0\u00a0\u00a0\u00a0\u00a0";
+
+    /**
+     * Version of the transformation output, part of the {@link FragmentCache} key.
+     * Should be changed whenever transformed html of the same input file changes.
+     */
+    static final String TRANSFORMER_VERSION = "2";
+
+    /**
+     * Bottom page margin of the base template, in pt, page numbers are laid out in it
+     */
+    static final int PAGE_BOTTOM_MARGIN = 50;
+
+    public static OutputDocument processHTMLFiles(JavaProject parsedJavaProject) throws IOException {
+        return processHTMLFiles(parsedJavaProject, new ConversionOptions());
+    }
+
+    /**
+     * Files are read ahead by a separate thread, parsed and transformed by {@link ConversionOptions#getThreads()} workers,
+     * but merged to the output document strictly in {@link JavaProject#getOrderedNodes()} order, so the result does not
+     * depend on the number of threads.
+     */
+    public static OutputDocument processHTMLFiles(JavaProject parsedJavaProject, ConversionOptions options) throws IOException {
+        return processHTMLFiles(parsedJavaProject, options, ConversionMetrics.disabled());
+    }
+
+    /**
+     * Same as {@link #processHTMLFiles(JavaProject, ConversionOptions)}, recording parse, transform and serialize phases
+     * and metrics of every file to {@code metrics}.
+     */
+    public static OutputDocument processHTMLFiles(JavaProject parsedJavaProject, ConversionOptions options, ConversionMetrics metrics) throws IOException {
+        OutputDocument outputDocument = generateBaseHtmlTemplate(options.getMemoryBudget());
+        int threads = options.getThreads();
+        LinkIndex linkIndex = parsedJavaProject.getLinkIndex();
+        boolean stripDanglingLinks = options.isStripDanglingLinks();
+        boolean sourceInput = options.getInputFormat() == FileCollector.InputFormat.SOURCE;
+        boolean streamingRewriter = options.isStreamingRewriter() && !sourceInput;
+        // Links depending on files of the whole project are resolved on merge (LinkResolver), so cache entries don't
+        String cacheVariant = sourceInput ? "source" : "";
+        if (streamingRewriter) {
+            // rewritten files are serialized differently
+            cacheVariant = "streaming-rewriter\n" + cacheVariant;
+        }
+        FragmentCache fragmentCache = options.getCacheDir() == null ? null : new FragmentCache(options.getCacheDir(), cacheVariant);
+        AtomicInteger danglingLinks = new AtomicInteger();
 
         List<Pair<String, HtmlFileSupplier.SourceHtmlType>> tableOfContent = new ArrayList<>();
-        Map<String, String> cssCodeStyles = new HashMap<>();
-
-        Element packagesDiv = outputDocument.body().getElementById("package-hierarchy");
-        for (HtmlFileSupplier htmlFileSupplier : parsedJavaProject.getOrderedNodes()) {
-            Pair<String, Element> parsedFile = parseHtmlCodeFileAndTransform(parsedJavaProject.getBasePackage(), htmlFileSupplier, cssCodeStyles);
-            if (htmlFileSupplier.sourceHtmlType() == PACKAGE) {
-                tableOfContent.add(Pair.of(parsedFile.getLeft(), PACKAGE));
-                packagesDiv.append(PAGE_BREAK_DIV_TEMPLATE);
-                packagesDiv.append(parsedFile.getRight().html());
-            } else {
-                tableOfContent.add(Pair.of(parsedFile.getLeft(), CLASS));
-                outputDocument.body().append(PAGE_BREAK_DIV_TEMPLATE);
-                outputDocument.body().append(parsedFile.getRight().html());
-            }
+        CssStyleRegistry cssCodeStyles = new CssStyleRegistry();
+
+        String basePackage = parsedJavaProject.getBasePackage();
+        List<Pair<ProjectNode, String>> orderedNodes = parsedJavaProject.getOrderedNodesWithSections();
+        // Files are read ahead by a separate thread, while the previous ones are transformed by the workers and merged
+        // on this thread. Files in flight are limited, so parsed documents don't pile up in memory while waiting for their turn
+        OrderedPipeline<Pair<ProjectNode, String>, byte[], TransformedFile> pipeline = new OrderedPipeline<>(
+                node -> readFile(node.getLeft(), metrics),
+                (node, content) -> transformFile(basePackage, node.getLeft(), content, linkIndex, sourceInput,
+                        streamingRewriter, options.getCodeBlockLines(), fragmentCache, metrics),
+                threads, threads * IN_FLIGHT_FILES_PER_THREAD);
+        pipeline.run(orderedNodes, (node, transformedFile) -> danglingLinks.addAndGet(
+                mergeTransformedFile(transformedFile, node.getRight(), outputDocument, tableOfContent, cssCodeStyles, linkIndex, stripDanglingLinks, metrics)));
+
+        if (fragmentCache != null) {
+            fragmentCache.prune();
+        }
+        if (danglingLinks.get() > 0) {
+            log.warn("Found {} links to files missing in the project{}", danglingLinks.get(), stripDanglingLinks ? ", links removed" : "");
+        }
+
+        long serializeStart = metrics.now();
+        for (Map.Entry<String, String> style : cssCodeStyles.getStyles().entrySet()) {
+            outputDocument.addStyle("." + style.getKey() + " { " + style.getValue() + " }");
+        }
+
+        Element tocDiv = new Element("div").attr("id", "tocDiv");
+        generateTableOfContent(tocDiv, basePackage, tableOfContent, options.getTableOfContent());
+        outputDocument.setTableOfContentHtml(tocDiv.outerHtml());
+        if (options.isOutline()) {
+            outputDocument.setOutline(generateOutline(basePackage, tableOfContent));
+        }
+        metrics.addPhaseNanos(Phase.SERIALIZE, metrics.now() - serializeStart);
+
+        metrics.reportPhase(Phase.READ);
+        metrics.reportPhase(Phase.PARSE);
+        metrics.reportPhase(Phase.TRANSFORM);
+        metrics.reportPhase(Phase.SERIALIZE);
+        return outputDocument;
+    }
+
+    /**
+     * Order dependent part of the processing: css class names are assigned in the order files are merged.
+     * Links depending on the files of the whole project are resolved here too, see {@link LinkResolver}.
+     *
+     * @return number of files the file links to, which are not in the project
+     */
+    private static int mergeTransformedFile(TransformedFile transformedFile, String section, OutputDocument outputDocument,
+                                            List<Pair<String, HtmlFileSupplier.SourceHtmlType>> tableOfContent,
+                                            CssStyleRegistry cssCodeStyles, LinkIndex linkIndex, boolean stripDanglingLinks,
+                                            ConversionMetrics metrics) {
+        FileMetrics fileMetrics = transformedFile.getFileMetrics();
+        int stylesBefore = fileMetrics != null ? cssCodeStyles.size() : 0;
+        long mergeStart = metrics.now();
+        List<String> danglingTargets = transformedFile.getLinkTargets().stream()
+                .filter(linkTarget -> !linkIndex.contains(linkTarget))
+                .collect(Collectors.toList());
+        String html = LinkResolver.resolve(transformedFile.getHtml(), linkIndex,
+                stripDanglingLinks ? new HashSet<>(danglingTargets) : Collections.emptySet());
+        if (transformedFile.getSourceHtmlType() == PACKAGE) {
+            tableOfContent.add(Pair.of(transformedFile.getUniqueId(), PACKAGE));
+            outputDocument.addPackageFragment(html, transformedFile.getUniqueId(), section);
+        } else {
+            html = transformInternalCssCodeClasses(html, transformedFile.getInternalStyles(), cssCodeStyles);
+            tableOfContent.add(Pair.of(transformedFile.getUniqueId(), CLASS));
+            outputDocument.addClassFragment(html, transformedFile.getUniqueId(), section);
+        }
+        if (fileMetrics != null) {
+            metrics.addPhaseNanos(Phase.SERIALIZE, metrics.now() - mergeStart);
+            fileMetrics.setStylesAdded(cssCodeStyles.size() - stylesBefore);
         }
 
-        for (Map.Entry<String, String> style : cssCodeStyles.entrySet()) {
-            outputDocument.head().appendElement("style").text("." + style.getKey() + " { " + style.getValue() + " }");
+        if (!danglingTargets.isEmpty()) {
+            log.warn("{}: links to {} missing file(s) {}{}", transformedFile.getUniqueId(), danglingTargets.size(),
+                    danglingTargets.subList(0, Math.min(danglingTargets.size(), DANGLING_LINKS_LOGGED_PER_FILE)),
+                    danglingTargets.size() > DANGLING_LINKS_LOGGED_PER_FILE ? "..." : "");
+        }
+        if (fileMetrics != null) {
+            fileMetrics.setDanglingLinks(danglingTargets.size());
+            metrics.fileProcessed(fileMetrics);
         }
+        return danglingTargets.size();
+    }
 
-        generateTableOfContent(outputDocument.body().getElementById("tocDiv"), parsedJavaProject.getBasePackage(), tableOfContent);
+    /**
+     * @return file content, empty for packages of source input, which have no file
+     */
+    private static byte[] readFile(ProjectNode htmlFileSupplier, ConversionMetrics metrics) {
+        if (htmlFileSupplier.getHtmlFile() == null && htmlFileSupplier.sourceHtmlType() == PACKAGE
+                && htmlFileSupplier.getQualifiedName() != null) {
+            return new byte[0];
+        }
+        long readStart = metrics.now();
+        byte[] content = readHtml(htmlFileSupplier.getHtmlFile());
+        metrics.addPhaseNanos(Phase.READ, metrics.now() - readStart);
+        return content;
+    }
 
-        return outputDocument.outerHtml();
+    private static TransformedFile transformFile(String basePackage, ProjectNode htmlFileSupplier, byte[] content, LinkIndex linkIndex,
+                                                 boolean sourceInput, boolean streamingRewriter,
+                                                 int codeBlockLines, FragmentCache fragmentCache,
+                                                 ConversionMetrics metrics) {
+        FileMetrics fileMetrics = null;
+        if (metrics.isEnabled()) {
+            Path file = htmlFileSupplier.getHtmlFile();
+            fileMetrics = new FileMetrics(file != null ? file.toString() : htmlFileSupplier.getName());
+            fileMetrics.setFileSize(content.length);
+        }
+        // Package pages of source input are made of the package tree, not of a file, so they are not cached
+        boolean cached = fragmentCache != null && !(sourceInput && htmlFileSupplier.sourceHtmlType() == PACKAGE);
+        String key = null;
+        TransformedFile transformedFile = null;
+        if (cached) {
+            key = fragmentCache.key(basePackage, htmlFileSupplier, content);
+            transformedFile = fragmentCache.get(key);
+        }
+        if (transformedFile != null) {
+            if (fileMetrics != null) {
+                fileMetrics.setCached(true);
+            }
+        } else {
+            if (streamingRewriter && htmlFileSupplier.sourceHtmlType() == CLASS) {
+                transformedFile = rewriteClassFile(htmlFileSupplier, content, linkIndex, metrics, fileMetrics);
+            }
+            if (transformedFile == null) {
+                transformedFile = sourceInput
+                        ? transformSourceFile(basePackage, htmlFileSupplier, content, metrics, fileMetrics)
+                        : parseHtmlCodeFileAndTransform(basePackage, htmlFileSupplier, content, linkIndex, metrics, fileMetrics);
+            }
+            if (cached) {
+                fragmentCache.put(key, transformedFile);
+            }
+        }
+        if (transformedFile.getSourceHtmlType() == CLASS) {
+            // Cached files are kept in a single block, so the cache does not depend on the block size
+            transformedFile = splitCodeBlock(transformedFile, codeBlockLines);
+        }
+        if (fileMetrics != null) {
+            fileMetrics.setUniqueId(transformedFile.getUniqueId());
+            transformedFile.setFileMetrics(fileMetrics);
+        }
+        return transformedFile;
+    }
+
+    private static TransformedFile splitCodeBlock(TransformedFile transformedFile, int codeBlockLines) {
+        String html = CodeBlockSplitter.split(transformedFile.getHtml(), codeBlockLines);
+        if (html == transformedFile.getHtml()) {
+            return transformedFile;
+        }
+        return new TransformedFile(transformedFile.getUniqueId(), CLASS, html, transformedFile.getInternalStyles(),
+                transformedFile.getLinkTargets());
     }
 
     /**
      * <ul>Main logic of parsing file and transforming to unified format:</ul>
      * <li> make internal links</li>
-     * <li> make common styles</li>
+     * <li> collect styles, to be made common on merge</li>
      *
-     * @return Pair of (unique file id, parsed and transformed html document body)
+     * @return parsed and transformed html document body with its unique file id
      */
-    private static Pair<String, Element> parseHtmlCodeFileAndTransform(String basePackage, HtmlFileSupplier htmlFileSupplier, Map<String, String> cssCodeStyles) {
-        Document document = parseHTML(htmlFileSupplier.getHtmlFile());
-        String currentPackageId;
+    private static TransformedFile parseHtmlCodeFileAndTransform(String basePackage, ProjectNode htmlFileSupplier, byte[] content,
+                                                                 LinkIndex linkIndex, ConversionMetrics metrics, FileMetrics fileMetrics) {
+        long parseStart = metrics.now();
+        Document document = parseHTML(htmlFileSupplier.getHtmlFile(), content);
+        if (fileMetrics != null) {
+            long parseNanos = metrics.now() - parseStart;
+            metrics.addPhaseNanos(Phase.PARSE, parseNanos);
+            fileMetrics.setParseNanos(parseNanos);
+            fileMetrics.setDomNodes(document.getAllElements().size());
+        }
+        long transformStart = metrics.now();
+        String uniqueId;
+        Map<String, String> internalStyles;
+        int linksRewritten;
+        Set<String> linkTargets = new LinkedHashSet<>();
         if (htmlFileSupplier.sourceHtmlType() == CLASS) {
-            currentPackageId = makePackageLink(document);
+            String currentPackageId = makePackageLink(document);
             removeLinkNames(document);
-            String fullUniqueName = createClassAnchor(htmlFileSupplier.getName(), document, currentPackageId);
-            transformInternalLinks(currentPackageId, document, false);
-            transformInternalCssCodeClasses(document, cssCodeStyles);
-            return Pair.of(fullUniqueName, document.body());
+            uniqueId = createClassAnchor(htmlFileSupplier.getName(), document, currentPackageId);
+            linksRewritten = transformInternalLinks(currentPackageId, document, false, linkIndex, linkTargets);
+            internalStyles = parseExistingStyles(document);
         } else if (htmlFileSupplier.sourceHtmlType() == PACKAGE) {
             String packageName = document.getElementsByTag("title").get(0).text();
-            currentPackageId = transformPackageContent(basePackage, document, packageName);
-            transformInternalLinks(currentPackageId, document, true);
-            return Pair.of(currentPackageId, document.body());
+            uniqueId = transformPackageContent(basePackage, document, packageName);
+            linksRewritten = transformInternalLinks(uniqueId, document, true, linkIndex, linkTargets);
+            internalStyles = Collections.emptyMap();
         } else {
             throw new RuntimeException("Unexpected source file: " + htmlFileSupplier.sourceHtmlType());
         }
+        long serializeStart = metrics.now();
+        String html = document.body().html();
+        if (fileMetrics != null) {
+            metrics.addPhaseNanos(Phase.TRANSFORM, serializeStart - transformStart);
+            metrics.addPhaseNanos(Phase.SERIALIZE, metrics.now() - serializeStart);
+            fileMetrics.setLinksRewritten(linksRewritten);
+        }
+        return new TransformedFile(uniqueId, htmlFileSupplier.sourceHtmlType(), html, internalStyles, new ArrayList<>(linkTargets));
+    }
+
+    /**
+     * Same as {@link #parseHtmlCodeFileAndTransform} for a class file, by {@link ExportRewriter} without building a DOM.
+     *
+     * @return null if the file is not of the shape known to the rewriter
+     */
+    private static TransformedFile rewriteClassFile(ProjectNode htmlFileSupplier, byte[] content, LinkIndex linkIndex,
+                                                    ConversionMetrics metrics, FileMetrics fileMetrics) {
+        long transformStart = metrics.now();
+        ExportRewriter rewriter = new ExportRewriter(htmlFileSupplier.getName(), linkIndex);
+        TransformedFile transformedFile = rewriter.rewrite(new String(content, StandardCharsets.UTF_8));
+        if (transformedFile == null) {
+            log.debug("{} is not of the known export shape, parsing it with Jsoup", htmlFileSupplier.getHtmlFile());
+        } else if (fileMetrics != null) {
+            metrics.addPhaseNanos(Phase.TRANSFORM, metrics.now() - transformStart);
+            fileMetrics.setLinksRewritten(rewriter.getLinksRewritten());
+        }
+        return transformedFile;
+    }
+
+    /**
+     * Source input counterpart of {@link #parseHtmlCodeFileAndTransform}: classes are highlighted without building a DOM,
+     * package pages are made of the package tree, both in the same format as the transformed IntelliJ export.
+     */
+    private static TransformedFile transformSourceFile(String basePackage, ProjectNode htmlFileSupplier, byte[] content,
+                                                       ConversionMetrics metrics, FileMetrics fileMetrics) {
+        long transformStart = metrics.now();
+        Set<String> linkTargets = new LinkedHashSet<>();
+        TransformedFile transformedFile;
+        if (htmlFileSupplier.sourceHtmlType() == CLASS) {
+            String uniqueId = childUniqueId(sourcePackageId(htmlFileSupplier.getPackageName()), htmlFileSupplier.getName());
+            String html = "<table cellspacing=\"0\" cellpadding=\"5\" cols=\"1\" width=\"100%\" bgcolor=\"#606060\">" +
+                    "<tbody><tr><td><center><a name=\"" + uniqueId + "\"><font face=\"Arial, Helvetica\" color=\"#000000\">" +
+                    Entities.escape(htmlFileSupplier.getFileName()) + "</font></a></center></td></tr></tbody></table>\n" +
+                    "<pre>" + SourceHighlighter.highlight(new String(content, StandardCharsets.UTF_8)) + "</pre>";
+            transformedFile = new TransformedFile(uniqueId, CLASS, html, SourceHighlighter.STYLES, new ArrayList<>(linkTargets));
+        } else {
+            String packageId = sourcePackageId(htmlFileSupplier.getQualifiedName());
+            // Root folder with sources is the base package without a name
+            String uniqueId = packageId != null ? packageId : basePackage.replace(".", "-");
+            String html = createSourcePackageContent(basePackage, htmlFileSupplier, uniqueId, packageId, linkTargets);
+            transformedFile = new TransformedFile(uniqueId, PACKAGE, html, Collections.emptyMap(), new ArrayList<>(linkTargets));
+        }
+        if (fileMetrics != null) {
+            metrics.addPhaseNanos(Phase.TRANSFORM, metrics.now() - transformStart);
+            fileMetrics.setLinksRewritten(linkTargets.size());
+        }
+        return transformedFile;
+    }
+
+    private static String createSourcePackageContent(String basePackage, ProjectNode jPackage, String uniqueId, String packageId,
+                                                     Set<String> linkTargets) {
+        Pair<String, String> parentPackageAndCurrentPackageNames = splitParentPackageAndCurrent(jPackage.getQualifiedName());
+        String parentPackageName = parentPackageAndCurrentPackageNames.getLeft();
+        StringBuilder html = new StringBuilder();
+        if (parentPackageName == null || parentPackageName.length() < basePackage.length()) {
+            html.append("<a name=\"").append(uniqueId).append("\" href=\"#toc\">");
+        } else {
+            html.append("<a name=\"").append(uniqueId).append("\" href=\"#").append(sourcePackageId(parentPackageName)).append("\">");
+        }
+        if (parentPackageName == null) {
+            String packageName = jPackage.getQualifiedName().isEmpty() ? basePackage : jPackage.getQualifiedName();
+            html.append("<span>&nbsp;&nbsp;&nbsp;&nbsp;").append(Entities.escape(packageName)).append("</span></a>");
+        } else {
+            html.append("<span>&nbsp;&nbsp;&nbsp;&nbsp;").append(Entities.escape(parentPackageName)).append("</span></a>.")
+                    .append(Entities.escape(parentPackageAndCurrentPackageNames.getRight()));
+        }
+        html.append("<br><br>\n");
+        for (ProjectNode jClass : jPackage.getChildClasses()) {
+            String classId = childUniqueId(packageId, jClass.getName());
+            linkTargets.add(classId);
+            html.append("<a href=\"#").append(classId).append("\"><span>&nbsp;&nbsp;&nbsp;&nbsp;")
+                    .append(Entities.escape(jClass.getFileName())).append("</span></a><br>\n");
+        }
+        for (ProjectNode childPackage : jPackage.getChildPackages()) {
+            String childId = childUniqueId(packageId, childPackage.getName());
+            linkTargets.add(childId);
+            html.append("<a href=\"#").append(childId).append("\" style=\"font-weight: bold\"><span>&nbsp;&nbsp;&nbsp;&nbsp;")
+                    .append(Entities.escape(childPackage.getName())).append("</span></a><br>\n");
+        }
+        return html.toString();
+    }
+
+    /**
+     * @return id of a package of source input, null for the unnamed root package
+     */
+    private static String sourcePackageId(String qualifiedName) {
+        return qualifiedName.isEmpty() ? null : qualifiedName.replace(".", "-");
+    }
+
+    /**
+     * Same as ids of {@link LinkIndex}: children of the unnamed root package are known by their names.
+     */
+    private static String childUniqueId(String packageId, String name) {
+        return packageId == null ? name : packageId + "-" + name;
     }
 
     private static void removeLinkNames(Document document) {
@@ -93,7 +401,14 @@ public class HtmlTransformer {
         if (spanWithName == null) {
             throw new RuntimeException("Wrong html structure");
         }
-        spanWithName.html("<a name=\"" + fullUniqueName + "\">" + spanWithName.html() + "</a>");
+        // Whitespace around the name is dropped, html2pdf places no destination for an anchor starting with it
+        for (Node node : new ArrayList<>(spanWithName.childNodes())) {
+            if (node instanceof TextNode && ((TextNode) node).isBlank()) {
+                node.remove();
+            }
+        }
+        List<Node> nameNodes = new ArrayList<>(spanWithName.childNodes());
+        spanWithName.appendElement("a").attr("name", fullUniqueName).insertChildren(0, nameNodes);
         return fullUniqueName;
     }
 
@@ -104,83 +419,127 @@ public class HtmlTransformer {
         String parentPackageId = parentPackageAndCurrentPackageNames.getLeft() == null || parentPackageAndCurrentPackageNames.getLeft().length() < basePackage.length() ?
                 "toc" :
                 packageUniqueIdFromName(parentPackageAndCurrentPackageNames.getLeft());
-        document.body().prepend("<a " +
-                "name=\"" + currentPackageId + "\" " +
-                "href=\"#" + parentPackageId + "\">" +
-                "<span>" + parentPackageAndCurrentPackageNames.getLeft() + "</span></a>." + parentPackageAndCurrentPackageNames.getRight() + "<br><br>");
+        Element packageAnchor = new Element("a").attr("name", currentPackageId).attr("href", "#" + parentPackageId);
+        packageAnchor.appendElement("span").text(String.valueOf(parentPackageAndCurrentPackageNames.getLeft()));
+        document.body().insertChildren(0, packageAnchor, new TextNode("." + parentPackageAndCurrentPackageNames.getRight()),
+                new Element("br"), new Element("br"));
         Elements allLinks = document.body().getElementsByTag("a");
         List<Element> links = allLinks.stream().filter(element -> element.hasAttr("href")).collect(Collectors.toList());
         for (Element aLinkElement : links) {
             String linkText = aLinkElement.text();
-            aLinkElement.html("<span>&nbsp;&nbsp;&nbsp;&nbsp;" + linkText + "</span>");
+            aLinkElement.empty().appendElement("span").text(INDENT + linkText);
         }
         return currentPackageId;
     }
 
-    private static void transformInternalLinks(String currentPackage, Document document, boolean highlightPackages) {
+    /**
+     * @param linkTargets collects anchor ids of all project files the links point to
+     * @return number of links, pointing to other files of the project before
+     */
+    private static int transformInternalLinks(String currentPackage, Document document, boolean highlightPackages,
+                                              LinkIndex linkIndex, Set<String> linkTargets) {
         Elements allLinks = document.body().getElementsByTag("a");
         List<Element> links = allLinks.stream().filter(element -> element.hasAttr("href")).collect(Collectors.toList());
+        int rewritten = 0;
         for (Element aLinkElement : links) {
             String oldFileLink = aLinkElement.attr("href");
-            Pair<String, HtmlFileSupplier.SourceHtmlType> newUniqueLink = createNewUniqueLink(currentPackage, oldFileLink);
+            Pair<String, HtmlFileSupplier.SourceHtmlType> newUniqueLink = linkIndex.resolve(currentPackage, oldFileLink);
+            if (newUniqueLink.getRight() != null) {
+                rewritten++;
+                linkTargets.add(newUniqueLink.getLeft().substring(1));
+            }
             if (highlightPackages && newUniqueLink.getRight() == PACKAGE) {
                 aLinkElement.attr("style", "font-weight: bold");
             }
             aLinkElement.attr("href", newUniqueLink.getLeft());
         }
+        return rewritten;
     }
 
-    private static void transformInternalCssCodeClasses(Document document, Map<String, String> cssCodeStyles) {
+    /**
+     * Span classes are remapped directly in serialized html, which is produced by Jsoup: attribute values
+     * are always double-quoted and never contain a quote, text never contains a raw tag.
+     *
+     * @return html with classes renamed to the common ones
+     */
+    private static String transformInternalCssCodeClasses(String html, Map<String, String> internalParsedClasses, CssStyleRegistry cssCodeStyles) {
         // s0 -> color, s1 -> color
-        Map<String, String> internalParsedClasses = parseExistingStyles(document);
-        Map<String, String> cssCodeStylesInverted = new HashMap<>();
-        cssCodeStyles.forEach((key, value) -> cssCodeStylesInverted.put(value, key));
         Map<String, String> oldClassToNewClassMapping = new HashMap<>();
         internalParsedClasses.forEach((classNameInParsedFile, classStyle) -> {
-            String newClassName = cssCodeStylesInverted.get(classStyle);
-            if (newClassName == null) {
-                String newUniqueClassName = getNewUniqueClassName(cssCodeStyles.keySet(), classNameInParsedFile);
-                cssCodeStyles.put(newUniqueClassName, classStyle);
-            } else {
-                if (!newClassName.equals(classNameInParsedFile)) {
-                    oldClassToNewClassMapping.put(classNameInParsedFile, cssCodeStylesInverted.get(classStyle));
-                }
+            String newClassName = cssCodeStyles.register(classNameInParsedFile, classStyle);
+            if (!newClassName.equals(classNameInParsedFile)) {
+                oldClassToNewClassMapping.put(classNameInParsedFile, newClassName);
             }
         });
 
-        document.getElementsByTag("span")
-                .forEach(element -> {
-                    String oldClass = element.attr("class");
-                    if (oldClassToNewClassMapping.containsKey(oldClass)) {
-                        element.attr("class", oldClassToNewClassMapping.get(oldClass));
-                    }
-                });
+        if (oldClassToNewClassMapping.isEmpty()) {
+            return html;
+        }
+        Matcher matcher = SPAN_CLASS_PATTERN.matcher(html);
+        StringBuffer result = new StringBuffer(html.length());
+        while (matcher.find()) {
+            String newClass = oldClassToNewClassMapping.get(matcher.group(2));
+            if (newClass != null) {
+                matcher.appendReplacement(result, Matcher.quoteReplacement("<span" + matcher.group(1) + " class=\"" + newClass + "\""));
+            }
+        }
+        matcher.appendTail(result);
+        return result.toString();
     }
 
-    private static void generateTableOfContent(Element tocDiv, String basePackage, List<Pair<String, HtmlFileSupplier.SourceHtmlType>> tableOfContent) {
+    private static void generateTableOfContent(Element tocDiv, String basePackage, List<Pair<String, HtmlFileSupplier.SourceHtmlType>> tableOfContent,
+                                               ConversionOptions.TableOfContent mode) {
         for (Pair<String, HtmlFileSupplier.SourceHtmlType> entry : tableOfContent) {
             String uniqueId = entry.getKey();
             boolean pckg = entry.getValue() == PACKAGE;
-            String displayName = uniqueId.replace("-", ".");
-            displayName = displayName.replace(basePackage, "");
-            if (displayName.startsWith(".")) {
-                displayName = displayName.substring(1);
+            String displayName = tableOfContentName(uniqueId, basePackage);
+            if (displayName.isEmpty()) {
+                tocDiv.appendElement("br");
+                tocDiv.appendElement("a").attr("name", "toc").attr("href", "#" + uniqueId.trim()).appendElement("b").text(basePackage);
+            } else if (mode == ConversionOptions.TableOfContent.FULL || (pckg && mode == ConversionOptions.TableOfContent.COMPACT)) {
+                displayName = removeParentPackagesWithIntent(displayName);
+                tocDiv.appendElement("br");
+                Element link = tocDiv.appendElement("a").attr("href", "#" + uniqueId.trim());
+                (pckg ? link.appendElement("b") : link).text(displayName);
             }
+        }
+    }
+
+    /**
+     * Outline entries are the same as lines of the full table of content, nested by package.
+     */
+    private static DocumentOutline generateOutline(String basePackage, List<Pair<String, HtmlFileSupplier.SourceHtmlType>> tableOfContent) {
+        DocumentOutline outline = new DocumentOutline();
+        for (Pair<String, HtmlFileSupplier.SourceHtmlType> entry : tableOfContent) {
+            String uniqueId = entry.getKey().trim();
+            String displayName = tableOfContentName(uniqueId, basePackage);
             if (displayName.isEmpty()) {
-                tocDiv.append("<br><a name=\"toc\" href=\"#" + uniqueId.trim() + "\"><b>" + basePackage + "</b></a>");
+                outline.add(basePackage, uniqueId, 0);
             } else {
-                displayName = removeParentPackagesWithIntent(displayName);
-                tocDiv.append("<br><a href=\"#" + uniqueId.trim() + "\">" + (pckg ? "<b>" : "") + displayName + (pckg ? "</b>" : "") + "</a>");
+                int depth = StringUtils.countMatches(displayName, '.') + 1;
+                outline.add(displayName.substring(displayName.lastIndexOf('.') + 1), uniqueId, depth);
             }
         }
+        return outline;
+    }
+
+    /**
+     * @return dot separated name relative to the base package, empty for the base package
+     */
+    private static String tableOfContentName(String uniqueId, String basePackage) {
+        String displayName = uniqueId.replace("-", ".");
+        displayName = displayName.replace(basePackage, "");
+        if (displayName.startsWith(".")) {
+            displayName = displayName.substring(1);
+        }
+        return displayName;
     }
 
     private static String removeParentPackagesWithIntent(String inputString) {
-        String intentStr = "&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;";
-        StringBuilder result = new StringBuilder(intentStr);
+        StringBuilder result = new StringBuilder(TOC_INDENT);
         for (int i = 0; i < inputString.length(); i++) {
             if (inputString.charAt(i) == '.') {
-                result.append("&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;");
+                result.append(TOC_INDENT);
             }
         }
         int last = inputString.lastIndexOf(".");
@@ -192,18 +551,6 @@ public class HtmlTransformer {
         return result.toString();
     }
 
-    private static String getNewUniqueClassName(Set<String> existingKeys, String desiredKey) {
-        if (!existingKeys.contains(desiredKey)) {
-            return desiredKey;
-        }
-        String generated;
-        int i = 0;
-        do {
-            generated = "g" + i++;
-        } while (existingKeys.contains(generated));
-        return generated;
-    }
-
     private static Map<String, String> parseExistingStyles(Document document) {
         Map<String, String> internalParsedClasses = new HashMap<>();
         for (Element styleEl : document.select("head style")) {
@@ -227,66 +574,6 @@ public class HtmlTransformer {
         }
     }
 
-    private static Pair<String, HtmlFileSupplier.SourceHtmlType> createNewUniqueLink(String currentPackage, String oldFileLink) {
-        if (oldFileLink.startsWith("#") || oldFileLink.startsWith("http")) {
-            // It's already internal link, nothing to do here
-            return Pair.of(oldFileLink, null);
-        }
-        HtmlFileSupplier.SourceHtmlType sourceHtmlType = null;
-        if (oldFileLink.endsWith("/index.html")) {
-            oldFileLink = oldFileLink.substring(0, oldFileLink.length() - 11);
-            sourceHtmlType = PACKAGE;
-        } else if (oldFileLink.endsWith(".java.html")) {
-            oldFileLink = oldFileLink.substring(0, oldFileLink.length() - 10);
-            sourceHtmlType = CLASS;
-        } else if (oldFileLink.endsWith(".html")) {
-            oldFileLink = oldFileLink.substring(0, oldFileLink.length() - 5);
-            int lastExt = oldFileLink.lastIndexOf(".");
-            if (lastExt != -1) {
-                oldFileLink = oldFileLink.substring(0, lastExt - 1);
-                sourceHtmlType = CLASS;
-            }
-        }
-        if (sourceHtmlType == null) {
-            // We are not prepared for such file type, let's not try to parse it
-            return Pair.of(oldFileLink, null);
-        }
-
-        String[] packageParts = currentPackage.split("-");
-        String[] linkParts = oldFileLink.split("/");
-
-        String[] fullPath = new String[packageParts.length + linkParts.length];
-        System.arraycopy(packageParts, 0, fullPath, 0, packageParts.length);
-        System.arraycopy(linkParts, 0, fullPath, packageParts.length, linkParts.length);
-
-        int totalLength = fullPath.length;
-        int i = 0;
-        while (i < totalLength - 1) {
-            if ("..".equals(fullPath[i + 1])) {
-                if (0 < totalLength - i - 2) {
-                    System.arraycopy(fullPath, i + 2, fullPath, i, totalLength - i - 2);
-                    totalLength = totalLength - 2;
-                    i = i - 1;
-                    if (i < 0) {
-                        // There is nothing left from first array, time to check just second
-                        i = 0;
-                    }
-                }
-            } else {
-                i++;
-            }
-        }
-
-        // It's internal link now
-        StringBuilder str = new StringBuilder("#");
-        for (int j = 0; j < totalLength; j++) {
-            str.append(fullPath[j]);
-            str.append("-");
-        }
-        str.setLength(str.length() - 1);
-        return Pair.of(str.toString(), sourceHtmlType);
-    }
-
     private static String makePackageLink(Document document) {
         Elements preTag = document.body().getElementsByTag("pre");
         if (preTag.size() == 1) {
@@ -295,14 +582,14 @@ public class HtmlTransformer {
                 Element packageNameSpan = element.child(2);
                 String packageName = packageNameSpan.text();
                 String uniquePackageId = packageUniqueIdFromName(packageName);
-                packageNameSpan.html("<a href=\"#" + uniquePackageId + "\">" + packageName + "</a>");
+                packageNameSpan.empty().appendElement("a").attr("href", "#" + uniquePackageId).text(packageName);
                 return uniquePackageId;
             }
         }
         return null;
     }
 
-    private static String packageUniqueIdFromName(String packageName) {
+    static String packageUniqueIdFromName(String packageName) {
         if (packageName == null || packageName.length() < 2) {
             return null;
         }
@@ -313,12 +600,12 @@ public class HtmlTransformer {
         return packageName;
     }
 
-    private static Document generateBaseHtmlTemplate() {
+    private static OutputDocument generateBaseHtmlTemplate(long memoryBudget) {
         String cssContent1 = ".page-break { " +
                 "page-break-before: always; } \n";
         String cssContent2 = "@page {\n" +
                 "            size: A4; /* Define the page size */\n" +
-                "            margin: 30pt 30pt 50pt 30pt; /* Define the page margins */\n" +
+                "            margin: 30pt 30pt " + PAGE_BOTTOM_MARGIN + "pt 30pt; /* Define the page margins */\n" +
                 "            @bottom-center {\n" +
                 "                content: counter(page)\n" +
                 "            }\n" +
@@ -327,25 +614,26 @@ public class HtmlTransformer {
                 "color: blue;\n" +
                 "  } ";
 
-        Document outputDocument = Jsoup.parse(
-                "<html>" +
-                        "<head></head>" +
-                        "<body>" +
-                        "<div id=\"tocDiv\"></div>" +
-                        "<div id=\"package-hierarchy\"></div>" +
-                        "</body>" +
-                        "</html>");
-        outputDocument.head().appendElement("style").text(cssContent1);
-        outputDocument.head().appendElement("style").text(cssContent2);
-        outputDocument.head().appendElement("style").text(cssContent3);
+        OutputDocument outputDocument = new OutputDocument(memoryBudget);
+        outputDocument.addStyle(cssContent1);
+        outputDocument.addStyle(cssContent2);
+        outputDocument.addStyle(cssContent3);
 
         return outputDocument;
     }
 
-    private static Document parseHTML(File htmlFile) {
+    private static byte[] readHtml(Path htmlFile) {
+        try {
+            return Files.readAllBytes(htmlFile);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read html file " + htmlFile, e);
+        }
+    }
+
+    private static Document parseHTML(Path htmlFile, byte[] content) {
         // Parse the HTML content using Jsoup
         try {
-            return Jsoup.parse(htmlFile, StandardCharsets.UTF_8.displayName());
+            return Jsoup.parse(new ByteArrayInputStream(content), StandardCharsets.UTF_8.displayName(), htmlFile.toAbsolutePath().toString());
         } catch (IOException e) {
             throw new RuntimeException("Unable to parse html file", e);
         }
@@ -0,0 +1,91 @@
+package org.peyto.pdf.java.generator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rules selecting files of the input folder, checked by {@link FileCollector} while folders are listed,
+ * so nothing filtered out is read. Patterns match paths relative to the input folder, with {@code /} as separator:
+ * {@code glob:} (default, when there is no prefix) or {@code regex:} syntax of {@link java.nio.file.FileSystem#getPathMatcher}.
+ * <ul>
+ *     <li>excluded folder is not listed at all, excluded file is skipped</li>
+ *     <li>with include patterns, only files matching at least one of them are collected</li>
+ *     <li>files bigger than max file size are skipped</li>
+ * </ul>
+ * Package pages ({@code index.html}) are not filtered, they are kept while their package has any file left.
+ */
+public class InputFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(InputFilter.class);
+
+    public static final InputFilter ALL = new InputFilter(Collections.emptyList(), Collections.emptyList(), -1);
+
+    private static final String PACKAGE_PAGE = "index.html";
+
+    private final List<PathMatcher> includes;
+    private final List<PathMatcher> excludes;
+    private final long maxFileSize;
+
+    /**
+     * @param maxFileSize max size of a file in bytes, -1 for no limit
+     */
+    public InputFilter(List<String> includes, List<String> excludes, long maxFileSize) {
+        this.includes = matchers(includes);
+        this.excludes = matchers(excludes);
+        this.maxFileSize = maxFileSize;
+    }
+
+    private static List<PathMatcher> matchers(List<String> patterns) {
+        List<PathMatcher> matchers = new ArrayList<>(patterns.size());
+        for (String pattern : patterns) {
+            boolean hasSyntax = pattern.startsWith("glob:") || pattern.startsWith("regex:");
+            try {
+                matchers.add(FileSystems.getDefault().getPathMatcher(hasSyntax ? pattern : "glob:" + pattern));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid file pattern: " + pattern, e);
+            }
+        }
+        return matchers;
+    }
+
+    /**
+     * @return true, if some files could be filtered out, so the collected tree may have empty packages
+     */
+    public boolean isEnabled() {
+        return !includes.isEmpty() || !excludes.isEmpty() || maxFileSize != -1;
+    }
+
+    boolean acceptsFolder(Path relativePath) {
+        return !matchesAny(excludes, relativePath);
+    }
+
+    boolean acceptsFile(Path relativePath, long size) {
+        if (relativePath.getFileName().toString().equalsIgnoreCase(PACKAGE_PAGE)) {
+            return true;
+        }
+        if (matchesAny(excludes, relativePath) || (!includes.isEmpty() && !matchesAny(includes, relativePath))) {
+            return false;
+        }
+        if (maxFileSize != -1 && size > maxFileSize) {
+            log.warn("Skipping {} of {} KB, it is bigger than max file size", relativePath, size / 1024);
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean matchesAny(List<PathMatcher> matchers, Path relativePath) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(relativePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
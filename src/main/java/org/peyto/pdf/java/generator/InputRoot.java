@@ -0,0 +1,110 @@
+package org.peyto.pdf.java.generator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Input folder of a run, either a folder on disk or a folder of a zip or jar archive, which is read in place through
+ * a zip file system, without extracting it. The archive is given by its path, the whole archive is the input folder,
+ * or a folder of it is, e.g. {@code export.zip!/exportToHtml}.
+ * <p>
+ * Files collected from an archive could be read only until the input root is closed.
+ */
+final class InputRoot implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(InputRoot.class);
+
+    private static final String ARCHIVE_FOLDER_SEPARATOR = "!/";
+    private static final String[] ARCHIVE_EXTENSIONS = {".zip", ".jar"};
+
+    private final Path folder;
+    // name of the root package, the name of the folder or of the archive without extension
+    private final String name;
+    // null for a folder on disk
+    private final FileSystem archiveFileSystem;
+
+    private InputRoot(Path folder, String name, FileSystem archiveFileSystem) {
+        this.folder = folder;
+        this.name = name;
+        this.archiveFileSystem = archiveFileSystem;
+    }
+
+    /**
+     * @param inputPath path of a folder, of an archive, or of an archive followed by {@code !/} and a folder in it
+     */
+    static InputRoot open(String inputPath) {
+        if (!isArchive(inputPath)) {
+            Path folder = Paths.get(inputPath);
+            if (!Files.isDirectory(folder)) {
+                throw new RuntimeException("The specified folder does not exist " + inputPath);
+            }
+            return new InputRoot(folder, folder.toFile().getName(), null);
+        }
+        int separator = inputPath.indexOf(ARCHIVE_FOLDER_SEPARATOR);
+        Path archive = Paths.get(separator == -1 ? inputPath : inputPath.substring(0, separator));
+        if (!Files.isRegularFile(archive)) {
+            throw new RuntimeException("The specified archive does not exist " + archive);
+        }
+        FileSystem fileSystem;
+        try {
+            fileSystem = FileSystems.newFileSystem(archive, (ClassLoader) null);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to open archive " + archive, e);
+        }
+        Path folder = fileSystem.getPath("/" + (separator == -1 ? "" : inputPath.substring(separator + ARCHIVE_FOLDER_SEPARATOR.length())));
+        if (!Files.isDirectory(folder)) {
+            try {
+                fileSystem.close();
+            } catch (IOException e) {
+                log.warn("Unable to close archive {}", archive, e);
+            }
+            throw new RuntimeException("The specified folder does not exist in the archive " + inputPath);
+        }
+        String archiveName = archive.getFileName().toString();
+        String name = folder.getFileName() != null ? folder.getFileName().toString()
+                : archiveName.substring(0, archiveName.lastIndexOf('.'));
+        return new InputRoot(folder, name, fileSystem);
+    }
+
+    /**
+     * @return true if the path is an archive (by its extension), or a folder of an archive,
+     * an existing folder is never an archive, even if its name ends with an archive extension
+     */
+    static boolean isArchive(String inputPath) {
+        if (Files.isDirectory(Paths.get(inputPath))) {
+            return false;
+        }
+        int separator = inputPath.indexOf(ARCHIVE_FOLDER_SEPARATOR);
+        String archive = (separator == -1 ? inputPath : inputPath.substring(0, separator)).toLowerCase(Locale.ROOT);
+        for (String extension : ARCHIVE_EXTENSIONS) {
+            if (archive.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Path getFolder() {
+        return folder;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (archiveFileSystem != null) {
+            archiveFileSystem.close();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.peyto.pdf.java.generator;
+
+import org.peyto.pdf.java.generator.entity.LinkIndex;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Links, which depend on the files of the whole project, are resolved on merge, after a file is transformed (or read
+ * from {@link FragmentCache}), so transformed files depend on their own content only and adding or removing a file
+ * doesn't invalidate the cached fragments of the others.
+ * <p>
+ * Works on serialized html of a transformed file: attribute values are always double-quoted and never contain a quote,
+ * links are never nested.
+ */
+final class LinkResolver {
+
+    /**
+     * Attribute of a link to the first of the space separated anchor ids in the project, the link is dropped
+     * (keeping its text only) if there is none of them
+     */
+    static final String CANDIDATES_ATTRIBUTE = "data-link-candidates";
+
+    private static final Pattern CANDIDATES_LINK = Pattern.compile(
+            "<a " + CANDIDATES_ATTRIBUTE + "=\"([^\"]*)\">(.*?)</a>", Pattern.DOTALL);
+    private static final Pattern INTERNAL_LINK = Pattern.compile("<a ([^>]*?)href=\"#([^\"]*)\"([^>]*)>(.*?)</a>", Pattern.DOTALL);
+    private static final Pattern NAME_ATTRIBUTE = Pattern.compile("(?<![\\w-])name=\"[^\"]*\"");
+
+    private LinkResolver() {
+    }
+
+    /**
+     * @param strippedTargets anchor ids, links to which are dropped, keeping their text only
+     * @return html with candidate links resolved against the project and links to stripped targets dropped
+     */
+    static String resolve(String html, LinkIndex linkIndex, Collection<String> strippedTargets) {
+        if (html.contains(CANDIDATES_ATTRIBUTE)) {
+            html = replace(html, CANDIDATES_LINK, matcher -> {
+                for (String candidate : matcher.group(1).split(" ")) {
+                    if (linkIndex.contains(candidate)) {
+                        return "<a href=\"#" + candidate + "\">" + matcher.group(2) + "</a>";
+                    }
+                }
+                return matcher.group(2);
+            });
+        }
+        if (!strippedTargets.isEmpty()) {
+            html = replace(html, INTERNAL_LINK, matcher -> strippedTargets.contains(matcher.group(2))
+                    ? dropLink(matcher) : matcher.group());
+        }
+        return html;
+    }
+
+    /**
+     * @param keptTargets anchor ids, links to which are kept
+     * @return html with links to all other anchor ids dropped, keeping their text only
+     */
+    static String keepLinks(String html, Set<String> keptTargets) {
+        return replace(html, INTERNAL_LINK, matcher -> keptTargets.contains(matcher.group(2)) ? matcher.group() : dropLink(matcher));
+    }
+
+    /**
+     * @return text of the matched link, inside of the anchor without href if the link is an anchor too
+     */
+    private static String dropLink(Matcher matcher) {
+        Matcher name = NAME_ATTRIBUTE.matcher(matcher.group(1) + matcher.group(3));
+        return name.find() ? "<a " + name.group() + ">" + matcher.group(4) + "</a>" : matcher.group(4);
+    }
+
+    private static String replace(String html, Pattern pattern, Function<Matcher, String> replacement) {
+        Matcher matcher = pattern.matcher(html);
+        StringBuilder result = new StringBuilder(html.length());
+        int last = 0;
+        while (matcher.find()) {
+            result.append(html, last, matcher.start()).append(replacement.apply(matcher));
+            last = matcher.end();
+        }
+        return result.append(html, last, html.length()).toString();
+    }
+}
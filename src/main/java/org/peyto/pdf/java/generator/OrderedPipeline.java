@@ -0,0 +1,152 @@
+package org.peyto.pdf.java.generator;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Three overlapping stages over a list of items: a reader thread loads items one by one, {@code workers} threads
+ * process loaded items in any order, and results are consumed on the calling thread strictly in the order of the list,
+ * each one as soon as all the previous ones are consumed.
+ * <p>
+ * At most {@code capacity} items are in flight (read, but not consumed yet), the reader waits when it is ahead,
+ * so memory stays bounded however fast the reads are.
+ *
+ * @param <T> item
+ * @param <C> loaded content of an item
+ * @param <R> result of processing
+ */
+class OrderedPipeline<T, C, R> {
+
+    private final Function<T, C> reader;
+    private final BiFunction<T, C, R> processor;
+    private final int workers;
+    private final int capacity;
+
+    OrderedPipeline(Function<T, C> reader, BiFunction<T, C, R> processor, int workers, int capacity) {
+        if (workers < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Workers and capacity should be positive");
+        }
+        this.reader = reader;
+        this.processor = processor;
+        this.workers = workers;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Runs all items through the pipeline. The first failure of any stage, including an {@link Error}, is rethrown,
+     * and the rest is cancelled.
+     */
+    void run(List<T> items, BiConsumer<T, R> consumer) {
+        // Results in order of items, the queue bounds the number of items in flight
+        BlockingQueue<Pending<T, R>> results = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<Loaded<T, C, R>> loaded = new ArrayBlockingQueue<>(capacity);
+        ExecutorService executor = Executors.newFixedThreadPool(workers + 1);
+        try {
+            executor.execute(() -> read(items, results, loaded));
+            for (int i = 0; i < workers; i++) {
+                executor.execute(() -> process(loaded));
+            }
+            for (int i = 0; i < items.size(); i++) {
+                Pending<T, R> result = results.take();
+                consumer.accept(result.item, await(result.future));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while processing files", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void read(List<T> items, BlockingQueue<Pending<T, R>> results, BlockingQueue<Loaded<T, C, R>> loaded) {
+        try {
+            for (T item : items) {
+                CompletableFuture<R> future = new CompletableFuture<>();
+                // Slot in results is taken before reading, so it blocks while the consumer is behind
+                results.put(new Pending<>(item, future));
+                C content;
+                try {
+                    content = reader.apply(item);
+                } catch (Throwable e) {
+                    // errors too, the consumer waits for the future of every item
+                    future.completeExceptionally(e);
+                    return;
+                }
+                loaded.put(new Loaded<>(item, content, future));
+            }
+            for (int i = 0; i < workers; i++) {
+                loaded.put(Loaded.end());
+            }
+        } catch (InterruptedException e) {
+            // cancelled by the consumer
+        }
+    }
+
+    private void process(BlockingQueue<Loaded<T, C, R>> loaded) {
+        try {
+            while (true) {
+                Loaded<T, C, R> next = loaded.take();
+                if (next.future == null) {
+                    return;
+                }
+                try {
+                    next.future.complete(processor.apply(next.item, next.content));
+                } catch (Throwable e) {
+                    next.future.completeExceptionally(e);
+                }
+            }
+        } catch (InterruptedException e) {
+            // cancelled by the consumer
+        }
+    }
+
+    private static <R> R await(CompletableFuture<R> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException("Unable to process file", e.getCause());
+        }
+    }
+
+    private static class Pending<T, R> {
+
+        private final T item;
+        private final CompletableFuture<R> future;
+
+        private Pending(T item, CompletableFuture<R> future) {
+            this.item = item;
+            this.future = future;
+        }
+    }
+
+    private static class Loaded<T, C, R> {
+
+        private final T item;
+        private final C content;
+        // null marks the end of items
+        private final CompletableFuture<R> future;
+
+        private Loaded(T item, C content, CompletableFuture<R> future) {
+            this.item = item;
+            this.content = content;
+            this.future = future;
+        }
+
+        private static <T, C, R> Loaded<T, C, R> end() {
+            return new Loaded<>(null, null, null);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package org.peyto.pdf.java.generator;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Transformed project as a sequence of html parts. The full document is never materialized as a single String,
+ * it is written part by part to a {@link Writer} or read through {@link #openStream()}.
+ * <p>
+ * With a memory budget, package and class fragments over the budget are kept in temporary spill files,
+ * which are removed by {@link #close()}.
+ */
+public class OutputDocument implements Closeable {
+
+    static final String PAGE_BREAK_DIV_TEMPLATE = "<div class=\"page-break\"></div> \n";
+
+    private static final String HEAD_START = "<html>\n<head>\n<meta charset=\"UTF-8\">\n";
+    private static final String BODY_START = "</head>\n<body>\n";
+    private static final String PACKAGES_START = "\n<div id=\"package-hierarchy\">\n";
+    private static final String PACKAGES_END = "\n</div>\n";
+    private static final String BODY_END = "\n</body>\n</html>\n";
+
+    private final List<String> styles;
+    private final Fragments packageFragments;
+    private final Fragments classFragments;
+    // section name -> index of its first class fragment, in order of sections
+    private final LinkedHashMap<String, Integer> sectionStarts = new LinkedHashMap<>();
+    // section name -> index of its first package fragment, in order of sections
+    private final LinkedHashMap<String, Integer> packageSectionStarts = new LinkedHashMap<>();
+    // section name -> anchor ids of its package and class fragments
+    private final Map<String, Set<String>> sectionAnchorIds = new HashMap<>();
+    // anchor ids links are kept to, links to other ones are dropped; null to keep all links
+    private final Set<String> linkedAnchorIds;
+    private String tableOfContentHtml;
+    // outline of the whole document only, null for documents made by frontMatter() and section()
+    private DocumentOutline outline;
+    // documents made by frontMatter() and section() share fragments of this one and don't own them
+    private final boolean ownsFragments;
+
+    OutputDocument() {
+        this(-1);
+    }
+
+    /**
+     * @param memoryBudget bytes of memory for package and class fragments, -1 for no limit
+     */
+    OutputDocument(long memoryBudget) {
+        FragmentStore.Budget budget = memoryBudget < 0 ? null : new FragmentStore.Budget(memoryBudget);
+        this.styles = new ArrayList<>();
+        this.tableOfContentHtml = "";
+        this.packageFragments = new Fragments(new FragmentStore(budget), 0, -1);
+        this.classFragments = new Fragments(new FragmentStore(budget), 0, -1);
+        this.linkedAnchorIds = null;
+        this.ownsFragments = true;
+    }
+
+    private OutputDocument(List<String> styles, String tableOfContentHtml, Fragments packageFragments, Fragments classFragments,
+                           Set<String> linkedAnchorIds) {
+        this.styles = styles;
+        this.tableOfContentHtml = tableOfContentHtml;
+        this.packageFragments = packageFragments;
+        this.classFragments = classFragments;
+        this.linkedAnchorIds = linkedAnchorIds;
+        this.ownsFragments = false;
+    }
+
+    void addStyle(String css) {
+        styles.add("<style>" + css + "</style>\n");
+    }
+
+    /**
+     * Package fragments of one section should be added one after another.
+     *
+     * @param anchorId anchor id of the package, links to which are kept in the section document
+     */
+    void addPackageFragment(String html, String anchorId, String section) {
+        packageSectionStarts.putIfAbsent(section, packageFragments.store.size());
+        sectionAnchorIds.computeIfAbsent(section, s -> new HashSet<>()).add(anchorId);
+        packageFragments.store.add(html);
+    }
+
+    /**
+     * Class fragments of one section should be added one after another.
+     *
+     * @param anchorId anchor id of the class, links to which are kept in the section document
+     */
+    void addClassFragment(String html, String anchorId, String section) {
+        sectionStarts.putIfAbsent(section, classFragments.store.size());
+        sectionAnchorIds.computeIfAbsent(section, s -> new HashSet<>()).add(anchorId);
+        classFragments.store.add(html);
+    }
+
+    void setTableOfContentHtml(String tableOfContentHtml) {
+        this.tableOfContentHtml = tableOfContentHtml;
+    }
+
+    /**
+     * @param outline outline added to the pdf of this document, null for none
+     */
+    void setOutline(DocumentOutline outline) {
+        this.outline = outline;
+    }
+
+    DocumentOutline getOutline() {
+        return outline;
+    }
+
+    /**
+     * @return names of the sections having class fragments, in document order
+     */
+    public List<String> getSections() {
+        return new ArrayList<>(sectionStarts.keySet());
+    }
+
+    /**
+     * @return document with table of content and package pages only, and the same styles
+     */
+    public OutputDocument frontMatter() {
+        return new OutputDocument(new ArrayList<>(styles), tableOfContentHtml, packageFragments, Fragments.EMPTY, null);
+    }
+
+    /**
+     * @return document with class fragments of the section only, and the same styles
+     */
+    public OutputDocument section(String section) {
+        checkSection(section);
+        return new OutputDocument(new ArrayList<>(styles), "", Fragments.EMPTY, sectionFragments(classFragments.store, sectionStarts, section),
+                null);
+    }
+
+    /**
+     * Standalone document of the section, unlike {@link #section}, which is a part of the whole document.
+     * Links to packages and classes of other sections would point nowhere in it, so only the text of such links is kept,
+     * the same as of links to files missing in the project.
+     *
+     * @return document with package and class fragments of the section only, and the same styles
+     */
+    public OutputDocument packageDocument(String section) {
+        checkSection(section);
+        return new OutputDocument(new ArrayList<>(styles), "", sectionFragments(packageFragments.store, packageSectionStarts, section),
+                sectionFragments(classFragments.store, sectionStarts, section), sectionAnchorIds.get(section));
+    }
+
+    private void checkSection(String section) {
+        if (!sectionStarts.containsKey(section)) {
+            throw new IllegalArgumentException("Unknown section: " + section);
+        }
+    }
+
+    private static Fragments sectionFragments(FragmentStore store, LinkedHashMap<String, Integer> sectionStarts, String section) {
+        Integer start = sectionStarts.get(section);
+        if (start == null) {
+            return Fragments.EMPTY;
+        }
+        int end = store.size();
+        boolean afterSection = false;
+        for (Map.Entry<String, Integer> sectionStart : sectionStarts.entrySet()) {
+            if (afterSection) {
+                end = sectionStart.getValue();
+                break;
+            }
+            afterSection = sectionStart.getKey().equals(section);
+        }
+        return new Fragments(store, start, end);
+    }
+
+    public void writeTo(Writer writer) throws IOException {
+        Iterator<String> parts = parts();
+        while (parts.hasNext()) {
+            writer.write(parts.next());
+        }
+        writer.flush();
+    }
+
+    /**
+     * @return UTF-8 encoded document, parts are encoded lazily one at a time
+     */
+    public InputStream openStream() {
+        Iterator<String> parts = parts();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return parts.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                return new ByteArrayInputStream(parts.next().getBytes(StandardCharsets.UTF_8));
+            }
+        });
+    }
+
+    private Iterator<String> parts() {
+        return new ConcatIterator(Arrays.asList(
+                Collections.singletonList(HEAD_START).iterator(),
+                styles.iterator(),
+                Arrays.asList(BODY_START, tableOfContentHtml, PACKAGES_START).iterator(),
+                withPageBreaks(packageFragments, true),
+                Collections.singletonList(PACKAGES_END).iterator(),
+                // html2pdf starts with an empty page, if the document begins with a page break
+                withPageBreaks(classFragments, !tableOfContentHtml.isEmpty() || !packageFragments.isEmpty()),
+                Collections.singletonList(BODY_END).iterator()));
+    }
+
+    /**
+     * Removes spill files, the document (and documents made of it) could not be read after that.
+     */
+    @Override
+    public void close() {
+        if (ownsFragments) {
+            packageFragments.store.close();
+            classFragments.store.close();
+        }
+    }
+
+    private Iterator<String> withPageBreaks(Fragments fragments, boolean breakBeforeFirst) {
+        Iterator<String> fragmentsIterator = fragments.iterator();
+        return new Iterator<String>() {
+            private boolean pageBreakNext = breakBeforeFirst;
+
+            @Override
+            public boolean hasNext() {
+                // page break is emitted only in front of a fragment, so the fragment is still there after it
+                return fragmentsIterator.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (!fragmentsIterator.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (pageBreakNext) {
+                    pageBreakNext = false;
+                    return PAGE_BREAK_DIV_TEMPLATE;
+                }
+                pageBreakNext = true;
+                String fragment = fragmentsIterator.next();
+                return linkedAnchorIds == null ? fragment : LinkResolver.keepLinks(fragment, linkedAnchorIds);
+            }
+        };
+    }
+
+    /**
+     * Range of fragments of a store, up to the end of the store if {@code to} is -1.
+     */
+    private static class Fragments {
+
+        private static final Fragments EMPTY = new Fragments(null, 0, 0);
+
+        private final FragmentStore store;
+        private final int from;
+        private final int to;
+
+        private Fragments(FragmentStore store, int from, int to) {
+            this.store = store;
+            this.from = from;
+            this.to = to;
+        }
+
+        private int end() {
+            return to == -1 ? store.size() : to;
+        }
+
+        private boolean isEmpty() {
+            return end() <= from;
+        }
+
+        private Iterator<String> iterator() {
+            return isEmpty() ? Collections.emptyIterator() : store.iterator(from, end());
+        }
+    }
+
+    private static class ConcatIterator implements Iterator<String> {
+
+        private final Iterator<Iterator<String>> iterators;
+        private Iterator<String> current = Collections.emptyIterator();
+
+        private ConcatIterator(List<Iterator<String>> iterators) {
+            this.iterators = iterators.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext() && iterators.hasNext()) {
+                current = iterators.next();
+            }
+            return current.hasNext();
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
+}
@@ -2,23 +2,504 @@ package org.peyto.pdf.java.generator;
 
 import com.itextpdf.html2pdf.ConverterProperties;
 import com.itextpdf.html2pdf.HtmlConverter;
+import com.itextpdf.html2pdf.resolver.font.DefaultFontProvider;
+import com.itextpdf.io.font.FontProgram;
+import com.itextpdf.io.font.PdfEncodings;
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfArray;
+import com.itextpdf.kernel.pdf.PdfDictionary;
 import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfObject;
+import com.itextpdf.kernel.pdf.PdfPage;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfString;
 import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.action.PdfAction;
+import com.itextpdf.kernel.pdf.annot.PdfAnnotation;
+import com.itextpdf.kernel.pdf.annot.PdfLinkAnnotation;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.utils.PdfMerger;
+import com.itextpdf.layout.font.FontProvider;
+import com.itextpdf.layout.font.FontSet;
+import com.itextpdf.layout.properties.RenderingMode;
+import com.itextpdf.layout.renderer.TextRenderer;
+import com.itextpdf.styledxmlparser.css.media.MediaDeviceDescription;
+import com.itextpdf.styledxmlparser.resolver.font.BasicFontProvider;
+import org.peyto.pdf.java.generator.metrics.ConversionMetrics;
+import org.peyto.pdf.java.generator.metrics.Phase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/**
+ * Html to pdf conversion with fixed configuration. Fonts are loaded once, when the generator is created,
+ * and shared by all documents it generates, so one generator should be reused for many conversions.
+ * Could be used from many threads.
+ */
 public class PdfGenerator {
 
-    public static void generateFile(String outputFileName, String fullHtmlContent) {
+    private static final Logger log = LoggerFactory.getLogger(PdfGenerator.class);
+
+    /**
+     * Font families, which could be used by documents.
+     */
+    public enum Fonts {
+        /**
+         * Standard pdf fonts and all fonts shipped with html2pdf, the html2pdf default
+         */
+        SHIPPED,
+        /**
+         * Standard pdf fonts and the monospace font shipped with html2pdf, enough for source code
+         */
+        CODE,
+        /**
+         * Fonts shipped with html2pdf and all fonts installed in the system, which are scanned on start
+         */
+        SYSTEM
+    }
+
+    private static final String DEFAULT_FONT_FAMILY = "Times";
+    private static final String[] CODE_FONT_RESOURCES = {
+            "com/itextpdf/html2pdf/font/NotoSansMono-Regular.ttf",
+            "com/itextpdf/html2pdf/font/NotoSansMono-Bold.ttf"
+    };
+
+    // Shards are laid out without page numbers, those are added on merge the same way
+    // html2pdf lays out "@bottom-center { content: counter(page) }" of the base template
+    private static final String NO_PAGE_NUMBERS_CSS = "@page { @bottom-center { content: none } }";
+    private static final float PAGE_NUMBER_FONT_SIZE = 12;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final FontSet fontSet;
+    private final String baseUri;
+    private final String media;
+    private final PdfOutputProfile outputProfile;
+
+    /**
+     * Generator with html2pdf default fonts, base uri and media.
+     */
+    public PdfGenerator() {
+        this(Fonts.SHIPPED, null, null);
+    }
+
+    public PdfGenerator(Fonts fonts, String baseUri, String media) {
+        this(fonts, baseUri, media, PdfOutputProfile.DEFAULT);
+    }
+
+    /**
+     * @param baseUri       base uri of relative resources of documents, null for the current directory
+     * @param media         css media type, e.g. print or screen, null for the html2pdf default
+     * @param outputProfile compression settings of generated files
+     */
+    public PdfGenerator(Fonts fonts, String baseUri, String media, PdfOutputProfile outputProfile) {
+        long startMillis = System.currentTimeMillis();
+        this.fontSet = createFontSet(fonts);
+        this.baseUri = baseUri;
+        this.media = media;
+        this.outputProfile = outputProfile;
+        log.info("{} fonts loaded in {} ms", fontSet.size(), System.currentTimeMillis() - startMillis);
+    }
+
+    private static FontSet createFontSet(Fonts fonts) {
+        switch (fonts) {
+            case SHIPPED:
+                return new DefaultFontProvider(true, true, false).getFontSet();
+            case SYSTEM:
+                return new DefaultFontProvider(true, true, true).getFontSet();
+            case CODE:
+                FontProvider fontProvider = new BasicFontProvider(true, false);
+                for (String fontResource : CODE_FONT_RESOURCES) {
+                    fontProvider.getFontSet().addFont(readResource(fontResource), PdfEncodings.IDENTITY_H);
+                }
+                return fontProvider.getFontSet();
+            default:
+                throw new IllegalArgumentException("Unknown fonts: " + fonts);
+        }
+    }
+
+    private static byte[] readResource(String resource) {
+        try (InputStream in = PdfGenerator.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new RuntimeException("Font resource not found: " + resource);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read font resource " + resource, e);
+        }
+    }
+
+    public PdfOutputProfile getOutputProfile() {
+        return outputProfile;
+    }
+
+    public void generateFile(String outputFileName, OutputDocument outputDocument) {
+        generateFile(outputFileName, outputDocument, ConversionMetrics.disabled());
+    }
+
+    /**
+     * Layout and writing are interleaved by html2pdf, so time spent in writes to the file is recorded
+     * as {@link Phase#WRITE}, and the rest of the conversion as {@link Phase#PDF_LAYOUT}.
+     */
+    public void generateFile(String outputFileName, OutputDocument outputDocument, ConversionMetrics metrics) {
         try {
-            PdfDocument pdfDocument = new PdfDocument(new PdfWriter(outputFileName));
-            ConverterProperties converterProperties = new ConverterProperties();
-            converterProperties.setCharset(StandardCharsets.UTF_8.name());
-            // Convert HTML to PDF
-            HtmlConverter.convertToPdf(fullHtmlContent, pdfDocument, converterProperties);
-            pdfDocument.close();
+            if (metrics.isEnabled()) {
+                long start = metrics.now();
+                long writeNanos;
+                try (TimedOutputStream outputStream = new TimedOutputStream(new FileOutputStream(outputFileName))) {
+                    render(outputDocument, createPdfWriter(outputStream, false));
+                    writeNanos = outputStream.getNanos();
+                }
+                metrics.addPhaseNanos(Phase.PDF_LAYOUT, metrics.now() - start - writeNanos);
+                metrics.addPhaseNanos(Phase.WRITE, writeNanos);
+                metrics.reportPhase(Phase.PDF_LAYOUT);
+                metrics.reportPhase(Phase.WRITE);
+                resolvePages(outputFileName, metrics);
+            } else {
+                try (FileOutputStream outputStream = new FileOutputStream(outputFileName)) {
+                    render(outputDocument, createPdfWriter(outputStream, false));
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Error generating pdf file", e);
+        }
+    }
+
+    /**
+     * Table of content with package pages and every section of the document are laid out to separate pdf files
+     * by {@code threads} workers, then merged in document order. Internal links between shards are restored,
+     * and pages are numbered continuously.
+     */
+    public void generateShardedFile(String outputFileName, OutputDocument outputDocument, int threads) {
+        generateShardedFile(outputFileName, outputDocument, threads, ConversionMetrics.disabled());
+    }
+
+    /**
+     * Rendering of all shards is recorded as {@link Phase#PDF_LAYOUT}, merging them as {@link Phase#WRITE}.
+     */
+    public void generateShardedFile(String outputFileName, OutputDocument outputDocument, int threads, ConversionMetrics metrics) {
+        generateShardedFile(outputFileName, outputDocument, threads, metrics, null);
+    }
+
+    /**
+     * @param shardCache rendered shards of the previous runs, only shards with changed html are rendered, may be null
+     */
+    void generateShardedFile(String outputFileName, OutputDocument outputDocument, int threads, ConversionMetrics metrics,
+                             ShardCache shardCache) {
+        List<OutputDocument> shards = new ArrayList<>();
+        shards.add(outputDocument.frontMatter());
+        for (String section : outputDocument.getSections()) {
+            shards.add(outputDocument.section(section));
+        }
+        List<Path> shardFiles = new ArrayList<>();
+        List<Path> tempFiles = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            long layoutStart = metrics.now();
+            List<Future<?>> renderedShards = new ArrayList<>();
+            for (OutputDocument shard : shards) {
+                shard.addStyle(NO_PAGE_NUMBERS_CSS);
+                Path shardFile = shardCache == null ? null : shardCache.entryFile(shard);
+                if (shardFile != null && Files.exists(shardFile)) {
+                    shardFiles.add(shardFile);
+                    continue;
+                }
+                Path tempFile = shardCache == null ? Files.createTempFile("pdf-java-generator-shard", ".pdf") : shardCache.createTempFile();
+                tempFiles.add(tempFile);
+                shardFiles.add(shardFile == null ? tempFile : shardFile);
+                renderedShards.add(executor.submit(() -> {
+                    try (OutputStream out = Files.newOutputStream(tempFile)) {
+                        render(shard, createPdfWriter(out, false));
+                    }
+                    if (shardFile != null) {
+                        shardCache.put(tempFile, shardFile);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> renderedShard : renderedShards) {
+                renderedShard.get();
+            }
+            metrics.phaseFinished(Phase.PDF_LAYOUT, layoutStart);
+            log.info("{} shards rendered, {} reused, merging to {}", renderedShards.size(), shards.size() - renderedShards.size(),
+                    outputFileName);
+            long writeStart = metrics.now();
+            mergeShards(outputFileName, shardFiles, outputDocument.getOutline());
+            metrics.phaseFinished(Phase.WRITE, writeStart);
+            resolvePages(outputFileName, metrics);
+            if (shardCache != null) {
+                shardCache.prune();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while generating pdf file", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error generating pdf file", e.getCause());
         } catch (Exception e) {
             throw new RuntimeException("Error generating pdf file", e);
+        } finally {
+            executor.shutdownNow();
+            for (Path tempFile : tempFiles) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException e) {
+                    log.warn("Unable to delete temporary file {}", tempFile, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Content streams of shards are copied to the merged file as they are, so shards are compressed
+     * the same way as the merged file.
+     */
+    private PdfWriter createPdfWriter(OutputStream outputStream, boolean mergedDocument) {
+        return new PdfWriter(new BufferedOutputStream(outputStream, OUTPUT_BUFFER_SIZE), outputProfile.createWriterProperties(mergedDocument));
+    }
+
+    private void render(OutputDocument outputDocument, PdfWriter pdfWriter) throws IOException {
+        try (InputStream htmlStream = outputDocument.openStream();
+             PdfDocument pdfDocument = new PdfDocument(pdfWriter)) {
+            if (outputDocument.getOutline() != null) {
+                outputDocument.getOutline().addTo(pdfDocument);
+            }
+            ConverterProperties converterProperties = createConverterProperties();
+            // Convert HTML to PDF
+            HtmlConverter.convertToPdf(htmlStream, pdfDocument, converterProperties);
+        }
+    }
+
+    /**
+     * Font provider keeps pdf fonts of the document it is used for, so every document gets its own,
+     * made of the shared font set.
+     */
+    private ConverterProperties createConverterProperties() {
+        ConverterProperties converterProperties = new ConverterProperties();
+        converterProperties.setCharset(StandardCharsets.UTF_8.name());
+        converterProperties.setFontProvider(new BasicFontProvider(fontSet, DEFAULT_FONT_FAMILY));
+        if (baseUri != null) {
+            converterProperties.setBaseUri(baseUri);
+        }
+        if (media != null) {
+            converterProperties.setMediaDeviceDescription(new MediaDeviceDescription(media));
+        }
+        return converterProperties;
+    }
+
+    /**
+     * Reads back the generated file to find the page of every file anchor, only when metrics are enabled.
+     */
+    private static void resolvePages(String outputFileName, ConversionMetrics metrics) throws IOException {
+        if (!metrics.isEnabled()) {
+            return;
+        }
+        try (PdfDocument pdfDocument = new PdfDocument(new PdfReader(outputFileName))) {
+            Map<String, Integer> anchorPages = new HashMap<>();
+            for (Map.Entry<String, PdfObject> destination : pdfDocument.getCatalog().getNameTree(PdfName.Dests).getNames().entrySet()) {
+                int pageNumber = destinationPageNumber(pdfDocument, destination.getValue());
+                if (pageNumber > 0) {
+                    anchorPages.put(destination.getKey(), pageNumber);
+                }
+            }
+            metrics.pagesResolved(anchorPages, pdfDocument.getNumberOfPages());
+        }
+    }
+
+    /**
+     * @param outline outline of the merged document, null for none, shards have no outlines
+     */
+    private void mergeShards(String outputFileName, List<Path> shardFiles, DocumentOutline outline) throws IOException {
+        try (FileOutputStream outputStream = new FileOutputStream(outputFileName);
+             PdfDocument pdfDocument = new PdfDocument(createPdfWriter(outputStream, true))) {
+            PdfMerger merger = new PdfMerger(pdfDocument, false, false);
+            PdfFont pageNumberFont = PdfFontFactory.createFont(StandardFonts.TIMES_ROMAN);
+            float pageNumberBaseline = pageNumberBaseline(pageNumberFont);
+            for (Path shardFile : shardFiles) {
+                try (PdfDocument shard = new PdfDocument(new PdfReader(shardFile.toFile()))) {
+                    int firstPage = pdfDocument.getNumberOfPages() + 1;
+                    merger.merge(shard, 1, shard.getNumberOfPages());
+
+                    List<PdfPage> mergedPages = new ArrayList<>();
+                    for (int i = 0; i < shard.getNumberOfPages(); i++) {
+                        mergedPages.add(pdfDocument.getPage(firstPage + i));
+                    }
+                    Map<String, PdfObject> shardDestinations = shard.getCatalog().getNameTree(PdfName.Dests).getNames();
+                    copyNamedDestinations(shard, shardDestinations, mergedPages, pdfDocument);
+                    copyLinksToOtherShards(shard, shardDestinations, mergedPages);
+                    for (PdfPage page : mergedPages) {
+                        addPageNumber(page, pdfDocument.getPageNumber(page), pageNumberFont, pageNumberBaseline);
+                        page.flush();
+                    }
+                }
+            }
+            if (outline != null) {
+                outline.addTo(pdfDocument);
+            }
+        }
+    }
+
+    /**
+     * Merge copies only destinations used by links of the same shard, all the rest are copied here.
+     */
+    private static void copyNamedDestinations(PdfDocument shard, Map<String, PdfObject> shardDestinations,
+                                              List<PdfPage> mergedPages, PdfDocument pdfDocument) {
+        Map<String, PdfObject> mergedDestinations = pdfDocument.getCatalog().getNameTree(PdfName.Dests).getNames();
+        for (Map.Entry<String, PdfObject> destination : shardDestinations.entrySet()) {
+            if (mergedDestinations.containsKey(destination.getKey())) {
+                continue;
+            }
+            int pageNumber = destinationPageNumber(shard, destination.getValue());
+            if (pageNumber < 1) {
+                continue;
+            }
+            PdfArray shardArray = explicitDestination(destination.getValue());
+            PdfArray mergedArray = new PdfArray();
+            mergedArray.add(mergedPages.get(pageNumber - 1).getPdfObject());
+            for (int i = 1; i < shardArray.size(); i++) {
+                mergedArray.add(shardArray.get(i).copyTo(pdfDocument));
+            }
+            pdfDocument.addNamedDestination(destination.getKey(), mergedArray);
+        }
+    }
+
+    /**
+     * @return explicit destination array of a named destination, or null
+     */
+    private static PdfArray explicitDestination(PdfObject destination) {
+        if (destination instanceof PdfDictionary) {
+            destination = ((PdfDictionary) destination).get(PdfName.D);
+        }
+        if (!(destination instanceof PdfArray) || ((PdfArray) destination).isEmpty()) {
+            return null;
+        }
+        return (PdfArray) destination;
+    }
+
+    /**
+     * @return number of the page a named destination points to, or -1
+     */
+    private static int destinationPageNumber(PdfDocument pdfDocument, PdfObject destination) {
+        PdfArray explicitDestination = explicitDestination(destination);
+        if (explicitDestination == null || !(explicitDestination.get(0) instanceof PdfDictionary)) {
+            return -1;
+        }
+        return pdfDocument.getPageNumber((PdfDictionary) explicitDestination.get(0));
+    }
+
+    /**
+     * Merge drops links to destinations, which are not in the same shard. They are added back here,
+     * pointing to named destinations of the merged document.
+     */
+    private static void copyLinksToOtherShards(PdfDocument shard, Map<String, PdfObject> shardDestinations, List<PdfPage> mergedPages) {
+        for (int i = 0; i < shard.getNumberOfPages(); i++) {
+            for (PdfAnnotation annotation : shard.getPage(i + 1).getAnnotations()) {
+                if (!(annotation instanceof PdfLinkAnnotation)) {
+                    continue;
+                }
+                PdfDictionary action = ((PdfLinkAnnotation) annotation).getAction();
+                if (action == null || !PdfName.GoTo.equals(action.getAsName(PdfName.S))) {
+                    continue;
+                }
+                PdfString destinationName = action.getAsString(PdfName.D);
+                if (destinationName == null || shardDestinations.containsKey(destinationName.toUnicodeString())) {
+                    continue;
+                }
+                Rectangle rectangle = annotation.getRectangle().toRectangle();
+                PdfLinkAnnotation link = new PdfLinkAnnotation(rectangle);
+                link.setAction(PdfAction.createGoTo(destinationName.toUnicodeString()));
+                link.setBorder(new PdfArray(new float[]{0, 0, 0}));
+                link.setFlags(PdfAnnotation.PRINT);
+                mergedPages.get(i).addAnnotation(link);
+            }
+        }
+    }
+
+    /**
+     * html2pdf centers the line of the page number vertically in the bottom page margin, the line box being
+     * of the ascender and descender of the font as calculated by the layout.
+     *
+     * @return distance of the page number baseline from the bottom of the page
+     */
+    private static float pageNumberBaseline(PdfFont font) {
+        float[] ascenderDescender = TextRenderer.calculateAscenderDescender(font, RenderingMode.HTML_MODE);
+        return HtmlTransformer.PAGE_BOTTOM_MARGIN / 2f
+                - (ascenderDescender[0] + ascenderDescender[1]) / 2 * PAGE_NUMBER_FONT_SIZE / FontProgram.UNITS_NORMALIZATION;
+    }
+
+    private static void addPageNumber(PdfPage page, int pageNumber, PdfFont font, float baseline) {
+        String text = String.valueOf(pageNumber);
+        Rectangle pageSize = page.getPageSize();
+        float x = pageSize.getLeft() + (pageSize.getWidth() - font.getWidth(text, PAGE_NUMBER_FONT_SIZE)) / 2;
+        PdfCanvas canvas = new PdfCanvas(page);
+        canvas.beginText()
+                .setFontAndSize(font, PAGE_NUMBER_FONT_SIZE)
+                .moveText(x, pageSize.getBottom() + baseline)
+                .showText(text)
+                .endText();
+        canvas.release();
+    }
+
+    /**
+     * Sums time spent in writes to the underlying stream.
+     */
+    private static class TimedOutputStream extends FilterOutputStream {
+
+        private long nanos;
+
+        private TimedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long start = System.nanoTime();
+            out.write(b);
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            out.write(b, off, len);
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            out.flush();
+            nanos += System.nanoTime() - start;
+        }
+
+        private long getNanos() {
+            return nanos;
         }
     }
 }
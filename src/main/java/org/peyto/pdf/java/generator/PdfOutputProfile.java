@@ -0,0 +1,48 @@
+package org.peyto.pdf.java.generator;
+
+import com.itextpdf.kernel.pdf.CompressionConstants;
+import com.itextpdf.kernel.pdf.WriterProperties;
+
+/**
+ * Trade-off between the speed of writing pdf file and its size.
+ */
+public enum PdfOutputProfile {
+
+    /**
+     * iText defaults
+     */
+    DEFAULT(CompressionConstants.DEFAULT_COMPRESSION, false, false),
+    /**
+     * Lowest compression, for the fastest write, e.g. previews
+     */
+    FAST(CompressionConstants.BEST_SPEED, false, false),
+    /**
+     * Best compression, object streams and reuse of equal resources, for the smallest file, e.g. archived artifacts
+     */
+    SMALL(CompressionConstants.BEST_COMPRESSION, true, true);
+
+    private final int compressionLevel;
+    private final boolean fullCompression;
+    private final boolean smartMode;
+
+    PdfOutputProfile(int compressionLevel, boolean fullCompression, boolean smartMode) {
+        this.compressionLevel = compressionLevel;
+        this.fullCompression = fullCompression;
+        this.smartMode = smartMode;
+    }
+
+    /**
+     * @param mergedDocument writer is used for a document made of pages copied from other documents.
+     *                       Smart mode reuses copied objects, which look equal, and it breaks links
+     *                       of merged documents, so it is not used for them
+     */
+    WriterProperties createWriterProperties(boolean mergedDocument) {
+        WriterProperties writerProperties = new WriterProperties()
+                .setCompressionLevel(compressionLevel)
+                .setFullCompressionMode(fullCompression);
+        if (smartMode && !mergedDocument) {
+            writerProperties.useSmartMode();
+        }
+        return writerProperties;
+    }
+}
@@ -0,0 +1,86 @@
+package org.peyto.pdf.java.generator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rendered shards of {@link PdfGenerator#generateShardedFile}, kept between runs of one generator, so a shard is laid out
+ * again only when its html changed. Entry key is a hash of the shard html, everything else is fixed by the generator.
+ * <p>
+ * Entries not used by the last run are removed by {@link #prune()}.
+ */
+class ShardCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardCache.class);
+
+    private static final String ENTRY_SUFFIX = ".pdf";
+
+    private final Path cacheDir;
+    private final Set<Path> usedEntries = ConcurrentHashMap.newKeySet();
+
+    ShardCache(Path cacheDir) {
+        this.cacheDir = cacheDir;
+        try {
+            Files.createDirectories(cacheDir);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to create cache directory " + cacheDir, e);
+        }
+    }
+
+    /**
+     * @return file of the rendered shard, which exists if the same html was rendered before
+     */
+    Path entryFile(OutputDocument shard) throws IOException {
+        MessageDigest digest = FragmentCache.sha256();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = shard.openStream()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        Path entryFile = cacheDir.resolve(FragmentCache.hex(digest.digest()) + ENTRY_SUFFIX);
+        usedEntries.add(entryFile);
+        return entryFile;
+    }
+
+    /**
+     * Moves completely rendered {@code shardFile} to its entry, so a failed render never leaves a broken entry.
+     */
+    void put(Path shardFile, Path entryFile) throws IOException {
+        Files.move(shardFile, entryFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    Path createTempFile() throws IOException {
+        return Files.createTempFile(cacheDir, "shard", ".tmp");
+    }
+
+    /**
+     * Removes entries, which were not requested since the previous prune.
+     */
+    void prune() {
+        int removed = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(cacheDir)) {
+            for (Path entry : entries) {
+                if (!usedEntries.contains(entry)) {
+                    Files.deleteIfExists(entry);
+                    removed++;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Unable to prune cache directory {}", cacheDir, e);
+        }
+        log.debug("{} stale shards removed from {}", removed, cacheDir);
+        usedEntries.clear();
+    }
+}
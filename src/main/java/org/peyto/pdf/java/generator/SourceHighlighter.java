@@ -0,0 +1,228 @@
+package org.peyto.pdf.java.generator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Single pass highlighter of java-like source code to html, for source input without IntelliJ export.
+ * Tokens are marked with a fixed set of style classes ({@link #STYLES}), plain code is not wrapped at all.
+ * Package and import declarations are linked to the packages and classes they name, links are resolved against
+ * the project on merge by {@link LinkResolver}, so the html depends on the source only.
+ * <p>
+ * Highlighting is lexical only, e.g. a contextual keyword used as a name is highlighted as a keyword.
+ */
+class SourceHighlighter {
+
+    static final String KEYWORD = "kw";
+    static final String STRING = "str";
+    static final String COMMENT = "cmt";
+    static final String NUMBER = "num";
+    static final String ANNOTATION = "ann";
+
+    /**
+     * Style class -> css style, in the format of {@link CssStyleRegistry}
+     */
+    static final Map<String, String> STYLES;
+
+    static {
+        Map<String, String> styles = new LinkedHashMap<>();
+        styles.put(KEYWORD, "color: #000080; font-weight: bold;");
+        styles.put(STRING, "color: #008000; font-weight: bold;");
+        styles.put(COMMENT, "color: #808080; font-style: italic;");
+        styles.put(NUMBER, "color: #0000ff;");
+        styles.put(ANNOTATION, "color: #808000;");
+        STYLES = Collections.unmodifiableMap(styles);
+    }
+
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue",
+            "default", "do", "double", "else", "enum", "extends", "final", "finally", "float", "for", "goto", "if",
+            "implements", "import", "instanceof", "int", "interface", "long", "native", "new", "package", "private",
+            "protected", "public", "return", "short", "static", "strictfp", "super", "switch", "synchronized", "this",
+            "throw", "throws", "transient", "try", "void", "volatile", "while", "var", "record", "yield", "sealed",
+            "permits", "true", "false", "null"));
+
+    private final String source;
+    private final StringBuilder html;
+    private int pos;
+
+    private SourceHighlighter(String source) {
+        this.source = source;
+        this.html = new StringBuilder(source.length() * 2);
+    }
+
+    /**
+     * @return highlighted html of the source, to be put into {@code <pre>}
+     */
+    static String highlight(String source) {
+        SourceHighlighter highlighter = new SourceHighlighter(source.replace("\r\n", "\n"));
+        highlighter.run();
+        return highlighter.html.toString();
+    }
+
+    private void run() {
+        int length = source.length();
+        while (pos < length) {
+            char c = source.charAt(pos);
+            char next = pos + 1 < length ? source.charAt(pos + 1) : 0;
+            if (c == '/' && next == '/') {
+                int end = source.indexOf('\n', pos);
+                span(COMMENT, end == -1 ? length : end);
+            } else if (c == '/' && next == '*') {
+                int end = source.indexOf("*/", pos + 2);
+                span(COMMENT, end == -1 ? length : end + 2);
+            } else if (c == '"' && source.startsWith("\"\"\"", pos)) {
+                int end = source.indexOf("\"\"\"", pos + 3);
+                span(STRING, end == -1 ? length : end + 3);
+            } else if (c == '"' || c == '\'') {
+                span(STRING, quotedEnd(c));
+            } else if (c == '@' && Character.isJavaIdentifierStart(next)) {
+                int end = identifierEnd(pos + 1);
+                span(source.startsWith("interface", pos + 1) && end == pos + 10 ? KEYWORD : ANNOTATION, end);
+            } else if (Character.isDigit(c) || (c == '.' && Character.isDigit(next))) {
+                span(NUMBER, numberEnd());
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int end = identifierEnd(pos);
+                String word = source.substring(pos, end);
+                if (!KEYWORDS.contains(word)) {
+                    text(end);
+                } else if (word.equals("package") || word.equals("import")) {
+                    span(KEYWORD, end);
+                    declaration(word.equals("import"));
+                } else {
+                    span(KEYWORD, end);
+                }
+            } else {
+                text(pos + 1);
+            }
+        }
+    }
+
+    /**
+     * Name of the package or import declaration after its keyword, linked to the anchor ids it may name.
+     */
+    private void declaration(boolean isImport) {
+        text(whitespaceEnd(pos));
+        if (isImport && source.startsWith("static", pos) && identifierEnd(pos) == pos + 6) {
+            span(KEYWORD, pos + 6);
+            text(whitespaceEnd(pos));
+        }
+        int end = pos;
+        while (end < source.length() && (Character.isJavaIdentifierPart(source.charAt(end)) || source.charAt(end) == '.'
+                || source.charAt(end) == '*')) {
+            end++;
+        }
+        if (end == pos) {
+            return;
+        }
+        String name = source.substring(pos, end);
+        List<String> anchorIds = isImport ? importAnchorIds(name) : Collections.singletonList(anchorId(name));
+        html.append("<a ").append(LinkResolver.CANDIDATES_ATTRIBUTE).append("=\"").append(String.join(" ", anchorIds)).append("\">");
+        text(end);
+        html.append("</a>");
+    }
+
+    private static String anchorId(String name) {
+        return name.replace('.', '-');
+    }
+
+    /**
+     * Imports of nested classes and static imports name something inside a class, so the enclosing name is tried too.
+     */
+    private static List<String> importAnchorIds(String name) {
+        if (name.endsWith(".*")) {
+            name = name.substring(0, name.length() - 2);
+        }
+        int lastDot = name.lastIndexOf('.');
+        return lastDot == -1 ? Collections.singletonList(anchorId(name))
+                : Arrays.asList(anchorId(name), anchorId(name.substring(0, lastDot)));
+    }
+
+    /**
+     * @return end of a string or char literal, which ends with the line when it is not closed
+     */
+    private int quotedEnd(char quote) {
+        int end = pos + 1;
+        while (end < source.length()) {
+            char c = source.charAt(end);
+            if (c == '\\') {
+                end += 2;
+                continue;
+            }
+            if (c == quote) {
+                return end + 1;
+            }
+            if (c == '\n') {
+                return end;
+            }
+            end++;
+        }
+        return source.length();
+    }
+
+    private int identifierEnd(int from) {
+        int end = from;
+        while (end < source.length() && Character.isJavaIdentifierPart(source.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    private int whitespaceEnd(int from) {
+        int end = from;
+        while (end < source.length() && Character.isWhitespace(source.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Digits, letters (hex digits, suffixes, exponent), underscores and dots, with the sign of a decimal exponent.
+     */
+    private int numberEnd() {
+        boolean hex = source.startsWith("0x", pos) || source.startsWith("0X", pos);
+        int end = pos;
+        while (end < source.length()) {
+            char c = source.charAt(end);
+            char previous = end > pos ? source.charAt(end - 1) : 0;
+            boolean exponentSign = (c == '+' || c == '-')
+                    && (hex ? previous == 'p' || previous == 'P' : previous == 'e' || previous == 'E');
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '.' && !exponentSign) {
+                break;
+            }
+            end++;
+        }
+        return end;
+    }
+
+    private void span(String styleClass, int end) {
+        html.append("<span class=\"").append(styleClass).append("\">");
+        text(end);
+        html.append("</span>");
+    }
+
+    private void text(int end) {
+        for (int i = pos; i < end; i++) {
+            char c = source.charAt(i);
+            switch (c) {
+                case '&':
+                    html.append("&amp;");
+                    break;
+                case '<':
+                    html.append("&lt;");
+                    break;
+                case '>':
+                    html.append("&gt;");
+                    break;
+                default:
+                    html.append(c);
+            }
+        }
+        pos = end;
+    }
+}
@@ -0,0 +1,62 @@
+package org.peyto.pdf.java.generator;
+
+import org.peyto.pdf.java.generator.entity.HtmlFileSupplier;
+import org.peyto.pdf.java.generator.metrics.FileMetrics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of parsing and transforming single html file, before it is merged to the output document.
+ * Everything here depends only on the file itself, so files could be transformed independently (and in parallel).
+ */
+class TransformedFile {
+
+    private final String uniqueId;
+    private final HtmlFileSupplier.SourceHtmlType sourceHtmlType;
+    // serialized body content
+    private final String html;
+    // css classes declared in the file itself, class name -> style
+    private final Map<String, String> internalStyles;
+    // distinct anchor ids of project files the file links to, checked against the project on merge
+    private final List<String> linkTargets;
+    // metrics of the run which produced this instance, not cached; null when metrics are disabled
+    private FileMetrics fileMetrics;
+
+    TransformedFile(String uniqueId, HtmlFileSupplier.SourceHtmlType sourceHtmlType, String html, Map<String, String> internalStyles,
+                    List<String> linkTargets) {
+        this.uniqueId = uniqueId;
+        this.sourceHtmlType = sourceHtmlType;
+        this.html = html;
+        this.internalStyles = internalStyles;
+        this.linkTargets = linkTargets;
+    }
+
+    String getUniqueId() {
+        return uniqueId;
+    }
+
+    HtmlFileSupplier.SourceHtmlType getSourceHtmlType() {
+        return sourceHtmlType;
+    }
+
+    String getHtml() {
+        return html;
+    }
+
+    Map<String, String> getInternalStyles() {
+        return internalStyles;
+    }
+
+    List<String> getLinkTargets() {
+        return linkTargets;
+    }
+
+    FileMetrics getFileMetrics() {
+        return fileMetrics;
+    }
+
+    void setFileMetrics(FileMetrics fileMetrics) {
+        this.fileMetrics = fileMetrics;
+    }
+}
@@ -1,12 +1,12 @@
 package org.peyto.pdf.java.generator.entity;
 
-import java.io.File;
+import java.nio.file.Path;
 
 public interface HtmlFileSupplier {
 
     String getName();
 
-    File getHtmlFile();
+    Path getHtmlFile();
 
     SourceHtmlType sourceHtmlType();
 
@@ -1,13 +1,15 @@
 package org.peyto.pdf.java.generator.entity;
 
-import java.io.File;
+import java.nio.file.Path;
 
 public class JClass implements HtmlFileSupplier {
 
     private final String name;
-    private File htmlFile;
+    private Path htmlFile;
+    // dot separated name of the package, known only for source input
+    private String packageName;
 
-    public JClass(String name, File htmlFile) {
+    public JClass(String name, Path htmlFile) {
         this.name = name;
         this.htmlFile = htmlFile;
     }
@@ -18,7 +20,7 @@ public class JClass implements HtmlFileSupplier {
     }
 
     @Override
-    public File getHtmlFile() {
+    public Path getHtmlFile() {
         return htmlFile;
     }
 
@@ -26,4 +28,15 @@ public class JClass implements HtmlFileSupplier {
     public SourceHtmlType sourceHtmlType() {
         return SourceHtmlType.CLASS;
     }
+
+    /**
+     * @return full name of the package of the class, or null if it is known only from the class page
+     */
+    public String getPackageName() {
+        return packageName;
+    }
+
+    public void setPackageName(String packageName) {
+        this.packageName = packageName;
+    }
 }
@@ -1,13 +1,19 @@
 package org.peyto.pdf.java.generator.entity;
 
-import java.io.File;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Package of the tree built while files are collected (and collected again in watch mode),
+ * frozen to a {@link JavaProject} for the conversion.
+ */
 public class JPackage implements HtmlFileSupplier {
 
     private final String name;
-    private File htmlFile;
+    private Path htmlFile;
+    // dot separated name of the package, known only for source input
+    private String qualifiedName;
 
     private final List<JClass> childClasses = new ArrayList<>();
     private final List<JPackage> childPackages = new ArrayList<>();
@@ -23,7 +29,7 @@ public class JPackage implements HtmlFileSupplier {
     }
 
     @Override
-    public File getHtmlFile() {
+    public Path getHtmlFile() {
         return htmlFile;
     }
 
@@ -32,6 +38,17 @@ public class JPackage implements HtmlFileSupplier {
         return SourceHtmlType.PACKAGE;
     }
 
+    /**
+     * @return full name of the package, or null if it is known only from its package page
+     */
+    public String getQualifiedName() {
+        return qualifiedName;
+    }
+
+    public void setQualifiedName(String qualifiedName) {
+        this.qualifiedName = qualifiedName;
+    }
+
     public List<JClass> getChildClasses() {
         return childClasses;
     }
@@ -40,7 +57,7 @@ public class JPackage implements HtmlFileSupplier {
         return childPackages;
     }
 
-    public void setHtmlFile(File htmlFile) {
+    public void setHtmlFile(Path htmlFile) {
         this.htmlFile = htmlFile;
     }
 
@@ -51,4 +68,13 @@ public class JPackage implements HtmlFileSupplier {
     public void addChildPackage(JPackage jPackage) {
         childPackages.add(jPackage);
     }
+
+    /**
+     * Removes the package page, classes and subpackages, before the folder of the package is collected again.
+     */
+    public void clear() {
+        htmlFile = null;
+        childClasses.clear();
+        childPackages.clear();
+    }
 }
@@ -1,18 +1,52 @@
 package org.peyto.pdf.java.generator.entity;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Frozen model of the project, built once from the {@link JPackage}/{@link JClass} tree of the scan, which is not
+ * referenced afterwards. Nodes are kept in flat arrays in the order of {@link #getOrderedNodes()}, a pre-order
+ * with child packages before classes, both sorted by name: the subtree of a package is the index range from the package
+ * to its subtree end, so counts, ordering and children need no recursion. Paths of files are not kept, they are made
+ * of names of the packages, which are folder names, and of the file name of the node, all of them interned.
+ * <p>
+ * Nothing changes after construction, so the project could be used from many threads.
+ */
 public class JavaProject {
 
     private static final Logger log = LoggerFactory.getLogger(JavaProject.class);
 
+    private static final int NO_PARENT = -1;
+
     private final String basePackage;
-    private final JPackage rootPackage;
+    // id of the root package in links, null when the root package is the export folder itself
+    private final String rootPackageId;
+    // folder of the root package, null when there are no files
+    private final Path rootFolder;
+    // qualified name of the root package for source input, null when package names are known only from package pages
+    private final String rootQualifiedName;
+
+    private final String[] names;
+    private final int[] parents;
+    // index after the last node of the subtree, index + 1 for classes
+    private final int[] subtreeEnds;
+    private final BitSet packages;
+    // file name of the node, or its part after the node name (see fileNameSuffixes), null if the node has no file
+    private final String[] fileNames;
+    private final BitSet fileNameSuffixes;
+    private final int numberOfPackages;
+
+    private LinkIndex linkIndex;
 
     public JavaProject(JPackage rootPackage) {
         JPackage currentPackage = rootPackage;
@@ -26,7 +60,6 @@ public class JavaProject {
                 currentPackage = currentPackage.getChildPackages().get(0);
             } else {
                 bpName.append(currentPackage.getName());
-                this.rootPackage = currentPackage;
                 break;
             }
         }
@@ -34,40 +67,248 @@ public class JavaProject {
             throw new RuntimeException("Something wrong, base package has no name");
         }
         this.basePackage = bpName.toString();
+        this.rootPackageId = currentPackage == rootPackage ? null : basePackage.replace(".", "-");
+        this.rootQualifiedName = currentPackage.getQualifiedName();
+
+        int size = countNodes(currentPackage);
+        names = new String[size];
+        parents = new int[size];
+        subtreeEnds = new int[size];
+        packages = new BitSet(size);
+        fileNames = new String[size];
+        fileNameSuffixes = new BitSet(size);
+        Builder builder = new Builder();
+        builder.add(currentPackage, NO_PARENT);
+        numberOfPackages = packages.cardinality();
+        rootFolder = builder.rootFolder;
+    }
+
+    private static int countNodes(JPackage jPackage) {
+        int count = 1 + jPackage.getChildClasses().size();
+        for (JPackage childPackage : jPackage.getChildPackages()) {
+            count += countNodes(childPackage);
+        }
+        return count;
+    }
+
+    /**
+     * Fills the arrays in pre-order, sorting copies of child lists, so the scanned tree is not changed.
+     */
+    private class Builder {
+
+        private final Map<String, String> interned = new HashMap<>();
+        private int next = 0;
+        private Path rootFolder;
+
+        private int add(JPackage jPackage, int parent) {
+            int index = next++;
+            names[index] = intern(jPackage.getName());
+            parents[index] = parent;
+            packages.set(index);
+            setFile(index, jPackage.getHtmlFile());
+            List<JPackage> childPackages = new ArrayList<>(jPackage.getChildPackages());
+            childPackages.sort(Comparator.comparing(JPackage::getName));
+            for (JPackage childPackage : childPackages) {
+                add(childPackage, index);
+            }
+            List<JClass> childClasses = new ArrayList<>(jPackage.getChildClasses());
+            childClasses.sort(Comparator.comparing(JClass::getName));
+            for (JClass jClass : childClasses) {
+                int classIndex = next++;
+                names[classIndex] = jClass.getName();
+                parents[classIndex] = index;
+                subtreeEnds[classIndex] = classIndex + 1;
+                setFile(classIndex, jClass.getHtmlFile());
+            }
+            subtreeEnds[index] = next;
+            return index;
+        }
+
+        private void setFile(int index, Path file) {
+            if (file == null) {
+                return;
+            }
+            String fileName = file.getFileName().toString();
+            if (!packages.get(index) && fileName.startsWith(names[index])) {
+                // e.g. .java.html, the same for most of the classes
+                fileNames[index] = intern(fileName.substring(names[index].length()));
+                fileNameSuffixes.set(index);
+            } else {
+                fileNames[index] = intern(fileName);
+            }
+            if (rootFolder == null) {
+                Path folder = file.getParent();
+                for (int p = packages.get(index) ? index : parents[index]; parents[p] != NO_PARENT; p = parents[p]) {
+                    folder = folder.getParent();
+                }
+                rootFolder = folder;
+            }
+        }
+
+        private String intern(String value) {
+            String internedValue = interned.putIfAbsent(value, value);
+            return internedValue != null ? internedValue : value;
+        }
     }
 
     public String getBasePackage() {
         return basePackage;
     }
 
+    /**
+     * @return index of all packages and classes of the project, built on first use
+     */
+    public synchronized LinkIndex getLinkIndex() {
+        if (linkIndex == null) {
+            linkIndex = new LinkIndex(this, rootPackageId);
+        }
+        return linkIndex;
+    }
+
     public int getNumberOfPackages() {
-        return getNumberOfPackages(rootPackage);
+        return numberOfPackages;
     }
 
     public int getNumberOfClasses() {
-        return getNumberOfClasses(rootPackage);
+        return names.length - numberOfPackages;
     }
 
+    /**
+     * @return unmodifiable list of all nodes: every package followed by its subpackages (with their subtrees) and
+     * then its classes, both sorted by name
+     */
     public List<HtmlFileSupplier> getOrderedNodes() {
-        List<HtmlFileSupplier> orderedNodes = new ArrayList<>();
-        collectOrderedNodes(rootPackage, orderedNodes);
-        return orderedNodes;
+        return new AbstractList<HtmlFileSupplier>() {
+            @Override
+            public HtmlFileSupplier get(int index) {
+                return getNode(index);
+            }
+
+            @Override
+            public int size() {
+                return names.length;
+            }
+        };
+    }
+
+    /**
+     * Same as {@link #getOrderedNodes()}, with the name of the section each node belongs to.
+     * Every top-level package (direct child of the base package) together with its subtree is a section,
+     * the base package itself and its classes form the section named as the base package.
+     * Nodes of one section always go one after another, except the base package itself.
+     */
+    public List<Pair<ProjectNode, String>> getOrderedNodesWithSections() {
+        return new AbstractList<Pair<ProjectNode, String>>() {
+            @Override
+            public Pair<ProjectNode, String> get(int index) {
+                return Pair.of(getNode(index), getSection(index));
+            }
+
+            @Override
+            public int size() {
+                return names.length;
+            }
+        };
+    }
+
+    /**
+     * @param index index of the node in {@link #getOrderedNodes()}
+     */
+    public ProjectNode getNode(int index) {
+        if (index < 0 || index >= names.length) {
+            throw new IndexOutOfBoundsException("No node " + index + " of " + names.length);
+        }
+        return new ProjectNode(this, index);
     }
 
-    private int getNumberOfPackages(JPackage rootPackage) {
-        int i = 1;
-        for (JPackage childPackage : rootPackage.getChildPackages()) {
-            i = i + getNumberOfPackages(childPackage);
+    private String getSection(int index) {
+        int topLevel = index;
+        while (topLevel != 0 && parents[topLevel] != 0) {
+            topLevel = parents[topLevel];
         }
-        return i;
+        return topLevel == 0 || !packages.get(topLevel) ? basePackage : basePackage + "." + names[topLevel];
+    }
+
+    String getName(int index) {
+        return names[index];
+    }
+
+    boolean isPackage(int index) {
+        return packages.get(index);
     }
 
-    private int getNumberOfClasses(JPackage rootPackage) {
-        int i = rootPackage.getChildClasses().size();
-        for (JPackage childPackage : rootPackage.getChildPackages()) {
-            i = i + getNumberOfClasses(childPackage);
+    int getParent(int index) {
+        return parents[index];
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * @return indexes of child packages of the package, sorted by name
+     */
+    List<Integer> getChildPackages(int index) {
+        List<Integer> childPackages = new ArrayList<>();
+        for (int child = index + 1; child < subtreeEnds[index] && packages.get(child); child = subtreeEnds[child]) {
+            childPackages.add(child);
+        }
+        return childPackages;
+    }
+
+    /**
+     * @return indexes of classes of the package, sorted by name
+     */
+    List<Integer> getChildClasses(int index) {
+        int child = index + 1;
+        while (child < subtreeEnds[index] && packages.get(child)) {
+            child = subtreeEnds[child];
+        }
+        List<Integer> childClasses = new ArrayList<>(subtreeEnds[index] - child);
+        for (; child < subtreeEnds[index]; child++) {
+            childClasses.add(child);
         }
-        return i;
+        return childClasses;
+    }
+
+    String getFileName(int index) {
+        String fileName = fileNames[index];
+        return fileName != null && fileNameSuffixes.get(index) ? names[index] + fileName : fileName;
+    }
+
+    Path getHtmlFile(int index) {
+        // the root folder could be a folder of a zip archive, which has its own separator
+        String path = getRelativePath(index, rootFolder == null ? "/" : rootFolder.getFileSystem().getSeparator());
+        return path == null ? null : rootFolder.resolve(path);
+    }
+
+    /**
+     * @return path of the file of the node relative to the root folder, or null if the node has no file
+     */
+    String getRelativePath(int index, String separator) {
+        String fileName = getFileName(index);
+        if (fileName == null) {
+            return null;
+        }
+        StringBuilder path = new StringBuilder(fileName);
+        for (int p = packages.get(index) ? index : parents[index]; parents[p] != NO_PARENT; p = parents[p]) {
+            path.insert(0, separator).insert(0, names[p]);
+        }
+        return path.toString();
+    }
+
+    /**
+     * @return dot separated name of the package, null if it is known only from the package page
+     */
+    String getQualifiedName(int packageIndex) {
+        if (rootQualifiedName == null) {
+            return null;
+        }
+        if (parents[packageIndex] == NO_PARENT) {
+            return rootQualifiedName;
+        }
+        String parentName = getQualifiedName(parents[packageIndex]);
+        return parentName.isEmpty() ? names[packageIndex] : parentName + "." + names[packageIndex];
     }
 
     public void print() {
@@ -78,36 +319,24 @@ public class JavaProject {
     }
 
     public List<String> getTableOfContent() {
-        List<String> tableOfContent = new ArrayList<>();
+        List<String> tableOfContent = new ArrayList<>(names.length);
         tableOfContent.add(basePackage);
-        buildTableOfContent(rootPackage, 1, tableOfContent);
+        buildTableOfContent(0, 1, tableOfContent);
         return tableOfContent;
     }
 
-    private void buildTableOfContent(JPackage jPackage, int indentLevel, List<String> tableOfContent) {
+    private void buildTableOfContent(int packageIndex, int indentLevel, List<String> tableOfContent) {
         StringBuilder indentation = new StringBuilder();
         for (int i = 0; i < indentLevel; i++) {
             indentation.append("    "); // 4 spaces per level
         }
 
-        for (JPackage childPackage : jPackage.getChildPackages()) {
-            tableOfContent.add(indentation + childPackage.getName());
+        for (int childPackage : getChildPackages(packageIndex)) {
+            tableOfContent.add(indentation + names[childPackage]);
             buildTableOfContent(childPackage, indentLevel + 1, tableOfContent);
         }
-        for (JClass jClass : jPackage.getChildClasses()) {
-            tableOfContent.add(indentation + "  " + jClass.getName());
-        }
-    }
-
-    private void collectOrderedNodes(JPackage jPackage, List<HtmlFileSupplier> orderedNodes) {
-        orderedNodes.add(jPackage);
-        List<JPackage> childPackages = jPackage.getChildPackages();
-        List<JClass> childClasses = jPackage.getChildClasses();
-        childPackages.sort(Comparator.comparing(JPackage::getName));
-        childClasses.sort(Comparator.comparing(JClass::getName));
-        for (JPackage childPackage : childPackages) {
-            collectOrderedNodes(childPackage, orderedNodes);
+        for (int jClass : getChildClasses(packageIndex)) {
+            tableOfContent.add(indentation + "  " + names[jClass]);
         }
-        orderedNodes.addAll(childClasses);
     }
 }
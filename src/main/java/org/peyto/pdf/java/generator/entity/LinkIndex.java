@@ -0,0 +1,125 @@
+package org.peyto.pdf.java.generator.entity;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Anchor ids of all packages and classes of the project, built once from the nodes of {@link JavaProject},
+ * with resolved links memoized per package.
+ * <p>
+ * Links of all files of one package are relative to the same folder, so the same link text (an import of the same class,
+ * a link to the parent package) resolves to the same anchor and is resolved only once. Could be used from many threads.
+ */
+public class LinkIndex {
+
+    private final Set<String> anchorIds;
+    // current package id -> link -> resolved link
+    private final Map<String, Map<String, Pair<String, HtmlFileSupplier.SourceHtmlType>>> resolvedLinks = new ConcurrentHashMap<>();
+
+    /**
+     * @param rootPackageId id of the root package, or null if the root package is the export folder itself
+     */
+    LinkIndex(JavaProject project, String rootPackageId) {
+        // parents go before their children, so ids of the parents are known
+        String[] nodeIds = new String[project.size()];
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < nodeIds.length; i++) {
+            nodeIds[i] = i == 0 ? rootPackageId : childId(nodeIds[project.getParent(i)], project.getName(i));
+            if (nodeIds[i] != null) {
+                ids.add(nodeIds[i]);
+            }
+        }
+        this.anchorIds = Collections.unmodifiableSet(ids);
+    }
+
+    private static String childId(String packageId, String name) {
+        return packageId == null ? name : packageId + "-" + name;
+    }
+
+    /**
+     * @return {@code #anchorId} of the link target with its type, or the link itself with null type, if it doesn't point
+     * to a project file
+     */
+    public Pair<String, HtmlFileSupplier.SourceHtmlType> resolve(String currentPackage, String link) {
+        if (currentPackage == null || link.startsWith("#")) {
+            return resolveLink(currentPackage, link);
+        }
+        return resolvedLinks.computeIfAbsent(currentPackage, packageId -> new ConcurrentHashMap<>())
+                .computeIfAbsent(link, l -> resolveLink(currentPackage, l));
+    }
+
+    /**
+     * @return true if there is a package or class with the id in the project
+     */
+    public boolean contains(String anchorId) {
+        return anchorIds.contains(anchorId);
+    }
+
+    /**
+     * Resolves link of a file in {@code currentPackage}, relative to the package folder, without memoization.
+     */
+    public static Pair<String, HtmlFileSupplier.SourceHtmlType> resolveLink(String currentPackage, String oldFileLink) {
+        if (oldFileLink.startsWith("#") || oldFileLink.startsWith("http")) {
+            // It's already internal link, nothing to do here
+            return Pair.of(oldFileLink, null);
+        }
+        HtmlFileSupplier.SourceHtmlType sourceHtmlType = null;
+        if (oldFileLink.endsWith("/index.html")) {
+            oldFileLink = oldFileLink.substring(0, oldFileLink.length() - 11);
+            sourceHtmlType = HtmlFileSupplier.SourceHtmlType.PACKAGE;
+        } else if (oldFileLink.endsWith(".java.html")) {
+            oldFileLink = oldFileLink.substring(0, oldFileLink.length() - 10);
+            sourceHtmlType = HtmlFileSupplier.SourceHtmlType.CLASS;
+        } else if (oldFileLink.endsWith(".html")) {
+            oldFileLink = oldFileLink.substring(0, oldFileLink.length() - 5);
+            int lastExt = oldFileLink.lastIndexOf(".");
+            if (lastExt != -1) {
+                oldFileLink = oldFileLink.substring(0, lastExt - 1);
+                sourceHtmlType = HtmlFileSupplier.SourceHtmlType.CLASS;
+            }
+        }
+        if (sourceHtmlType == null) {
+            // We are not prepared for such file type, let's not try to parse it
+            return Pair.of(oldFileLink, null);
+        }
+
+        String[] packageParts = currentPackage.split("-");
+        String[] linkParts = oldFileLink.split("/");
+
+        String[] fullPath = new String[packageParts.length + linkParts.length];
+        System.arraycopy(packageParts, 0, fullPath, 0, packageParts.length);
+        System.arraycopy(linkParts, 0, fullPath, packageParts.length, linkParts.length);
+
+        int totalLength = fullPath.length;
+        int i = 0;
+        while (i < totalLength - 1) {
+            if ("..".equals(fullPath[i + 1])) {
+                if (0 < totalLength - i - 2) {
+                    System.arraycopy(fullPath, i + 2, fullPath, i, totalLength - i - 2);
+                    totalLength = totalLength - 2;
+                    i = i - 1;
+                    if (i < 0) {
+                        // There is nothing left from first array, time to check just second
+                        i = 0;
+                    }
+                }
+            } else {
+                i++;
+            }
+        }
+
+        // It's internal link now
+        StringBuilder str = new StringBuilder("#");
+        for (int j = 0; j < totalLength; j++) {
+            str.append(fullPath[j]);
+            str.append("-");
+        }
+        str.setLength(str.length() - 1);
+        return Pair.of(str.toString(), sourceHtmlType);
+    }
+}
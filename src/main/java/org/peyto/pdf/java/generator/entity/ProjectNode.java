@@ -0,0 +1,102 @@
+package org.peyto.pdf.java.generator.entity;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Package or class of a {@link JavaProject}, a view of one of its nodes, made on request.
+ */
+public final class ProjectNode implements HtmlFileSupplier {
+
+    private final JavaProject project;
+    private final int index;
+
+    ProjectNode(JavaProject project, int index) {
+        this.project = project;
+        this.index = index;
+    }
+
+    /**
+     * @return index of the node in {@link JavaProject#getOrderedNodes()}
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public String getName() {
+        return project.getName(index);
+    }
+
+    /**
+     * @return file of the node, made on every call, or null for a package without a package page
+     */
+    @Override
+    public Path getHtmlFile() {
+        return project.getHtmlFile(index);
+    }
+
+    /**
+     * @return name of the file of the node, without making its path, or null
+     */
+    public String getFileName() {
+        return project.getFileName(index);
+    }
+
+    /**
+     * @return path of the file of the node relative to the input folder, with / separators, or null
+     */
+    public String getRelativePath() {
+        return project.getRelativePath(index, "/");
+    }
+
+    @Override
+    public SourceHtmlType sourceHtmlType() {
+        return project.isPackage(index) ? SourceHtmlType.PACKAGE : SourceHtmlType.CLASS;
+    }
+
+    /**
+     * @return full name of the package, or null if it is known only from its package page
+     */
+    public String getQualifiedName() {
+        return project.isPackage(index) ? project.getQualifiedName(index) : null;
+    }
+
+    /**
+     * @return full name of the package of the class, or null if it is known only from the class page
+     */
+    public String getPackageName() {
+        return project.isPackage(index) ? null : project.getQualifiedName(project.getParent(index));
+    }
+
+    public List<ProjectNode> getChildPackages() {
+        return project.getChildPackages(index).stream().map(project::getNode).collect(Collectors.toList());
+    }
+
+    public List<ProjectNode> getChildClasses() {
+        return project.getChildClasses(index).stream().map(project::getNode).collect(Collectors.toList());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ProjectNode)) {
+            return false;
+        }
+        ProjectNode that = (ProjectNode) o;
+        return project == that.project && index == that.index;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * System.identityHashCode(project) + index;
+    }
+
+    @Override
+    public String toString() {
+        return sourceHtmlType() + " " + getName();
+    }
+}
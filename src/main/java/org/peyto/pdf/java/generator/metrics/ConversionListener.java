@@ -0,0 +1,20 @@
+package org.peyto.pdf.java.generator.metrics;
+
+/**
+ * Receives metrics of conversion runs, e.g. to forward them to a monitoring system.
+ * Methods are called from the thread running the conversion, per file phases are reported once all files are processed.
+ */
+public interface ConversionListener {
+
+    default void phaseFinished(Phase phase, long nanos) {
+    }
+
+    /**
+     * Called when the file is merged to the output document, page count is not known yet.
+     */
+    default void fileProcessed(FileMetrics fileMetrics) {
+    }
+
+    default void runFinished(RunMetrics runMetrics) {
+    }
+}
@@ -0,0 +1,116 @@
+package org.peyto.pdf.java.generator.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records metrics of one conversion run and passes them to {@link ConversionListener}s.
+ * <p>
+ * Without listeners metrics are disabled: {@link #now()} doesn't read the clock and nothing is recorded,
+ * callers should check {@link #isEnabled()} before collecting anything expensive.
+ */
+public class ConversionMetrics {
+
+    private static final ConversionMetrics DISABLED = new ConversionMetrics(null, Collections.emptyList());
+
+    private final RunMetrics runMetrics;
+    private final List<ConversionListener> listeners;
+    private final long startNanos;
+
+    private ConversionMetrics(RunMetrics runMetrics, List<ConversionListener> listeners) {
+        this.runMetrics = runMetrics;
+        this.listeners = listeners;
+        this.startNanos = runMetrics == null ? 0 : System.nanoTime();
+    }
+
+    public static ConversionMetrics disabled() {
+        return DISABLED;
+    }
+
+    public static ConversionMetrics start(String input, String output, List<ConversionListener> listeners) {
+        if (listeners.isEmpty()) {
+            return DISABLED;
+        }
+        return new ConversionMetrics(new RunMetrics(input, output, System.currentTimeMillis()), new ArrayList<>(listeners));
+    }
+
+    public boolean isEnabled() {
+        return runMetrics != null;
+    }
+
+    public long now() {
+        return runMetrics == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Adds time of a per file phase, could be called from any thread.
+     */
+    public void addPhaseNanos(Phase phase, long nanos) {
+        if (runMetrics != null) {
+            runMetrics.addPhaseNanos(phase, nanos);
+        }
+    }
+
+    /**
+     * Adds time passed since {@code startNanos} to the phase and reports phase total to listeners.
+     */
+    public void phaseFinished(Phase phase, long startNanos) {
+        if (runMetrics != null) {
+            runMetrics.addPhaseNanos(phase, System.nanoTime() - startNanos);
+            reportPhase(phase);
+        }
+    }
+
+    /**
+     * Reports total time of the phase collected so far to listeners.
+     */
+    public void reportPhase(Phase phase) {
+        if (runMetrics != null) {
+            long nanos = runMetrics.getPhaseNanos().getOrDefault(phase, 0L);
+            listeners.forEach(listener -> listener.phaseFinished(phase, nanos));
+        }
+    }
+
+    public void fileProcessed(FileMetrics fileMetrics) {
+        if (runMetrics != null) {
+            runMetrics.addFile(fileMetrics);
+            listeners.forEach(listener -> listener.fileProcessed(fileMetrics));
+        }
+    }
+
+    /**
+     * Every file takes pages from the page of its anchor up to the page of the next file anchor.
+     *
+     * @param anchorPages page number of every named destination in the generated pdf
+     */
+    public void pagesResolved(Map<String, Integer> anchorPages, int totalPages) {
+        if (runMetrics == null) {
+            return;
+        }
+        runMetrics.setPages(totalPages);
+        List<FileMetrics> filesWithPages = new ArrayList<>();
+        for (FileMetrics file : runMetrics.getFiles()) {
+            if (file.getUniqueId() != null && anchorPages.containsKey(file.getUniqueId())) {
+                filesWithPages.add(file);
+            }
+        }
+        filesWithPages.sort(Comparator.comparing(file -> anchorPages.get(file.getUniqueId())));
+        for (int i = 0; i < filesWithPages.size(); i++) {
+            int startPage = anchorPages.get(filesWithPages.get(i).getUniqueId());
+            int nextStartPage = i + 1 < filesWithPages.size() ? anchorPages.get(filesWithPages.get(i + 1).getUniqueId()) : totalPages + 1;
+            filesWithPages.get(i).setPages(Math.max(1, nextStartPage - startPage));
+        }
+    }
+
+    public void runFinished(String outputProfile, long outputSize) {
+        if (runMetrics != null) {
+            runMetrics.setOutputProfile(outputProfile);
+            runMetrics.setOutputSize(outputSize);
+            runMetrics.setTotalNanos(System.nanoTime() - startNanos);
+            listeners.forEach(listener -> listener.runFinished(runMetrics));
+        }
+    }
+}
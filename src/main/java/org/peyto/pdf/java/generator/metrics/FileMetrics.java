@@ -0,0 +1,98 @@
+package org.peyto.pdf.java.generator.metrics;
+
+/**
+ * Metrics of a single input file. Values not known for the file (e.g. dom nodes of a file taken from cache) are -1.
+ */
+public class FileMetrics {
+
+    private final String path;
+    private String uniqueId;
+    private boolean cached;
+    private long fileSize = -1;
+    private long parseNanos = -1;
+    private int domNodes = -1;
+    private int linksRewritten = -1;
+    private int stylesAdded = -1;
+    private int danglingLinks = -1;
+    private int pages = -1;
+
+    public FileMetrics(String path) {
+        this.path = path;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getUniqueId() {
+        return uniqueId;
+    }
+
+    public void setUniqueId(String uniqueId) {
+        this.uniqueId = uniqueId;
+    }
+
+    public boolean isCached() {
+        return cached;
+    }
+
+    public void setCached(boolean cached) {
+        this.cached = cached;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    public void setParseNanos(long parseNanos) {
+        this.parseNanos = parseNanos;
+    }
+
+    public int getDomNodes() {
+        return domNodes;
+    }
+
+    public void setDomNodes(int domNodes) {
+        this.domNodes = domNodes;
+    }
+
+    public int getLinksRewritten() {
+        return linksRewritten;
+    }
+
+    public void setLinksRewritten(int linksRewritten) {
+        this.linksRewritten = linksRewritten;
+    }
+
+    public int getStylesAdded() {
+        return stylesAdded;
+    }
+
+    public void setStylesAdded(int stylesAdded) {
+        this.stylesAdded = stylesAdded;
+    }
+
+    public int getDanglingLinks() {
+        return danglingLinks;
+    }
+
+    public void setDanglingLinks(int danglingLinks) {
+        this.danglingLinks = danglingLinks;
+    }
+
+    public int getPages() {
+        return pages;
+    }
+
+    public void setPages(int pages) {
+        this.pages = pages;
+    }
+}
@@ -0,0 +1,111 @@
+package org.peyto.pdf.java.generator.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes metrics of the run as a json file, when the run is finished. Times are in milliseconds.
+ */
+public class JsonReportWriter implements ConversionListener {
+
+    private static final Logger log = LoggerFactory.getLogger(JsonReportWriter.class);
+
+    private final Path reportFile;
+
+    public JsonReportWriter(Path reportFile) {
+        this.reportFile = reportFile;
+    }
+
+    @Override
+    public void runFinished(RunMetrics runMetrics) {
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8))) {
+            write(runMetrics, writer);
+            log.info("Metrics report written to {}", reportFile);
+        } catch (IOException e) {
+            log.error("Unable to write metrics report {}", reportFile, e);
+        }
+    }
+
+    static void write(RunMetrics runMetrics, Writer writer) throws IOException {
+        writer.write("{\n");
+        writer.write("  \"input\": " + string(runMetrics.getInput()) + ",\n");
+        writer.write("  \"output\": " + string(runMetrics.getOutput()) + ",\n");
+        writer.write("  \"startedAtMillis\": " + runMetrics.getStartedAtMillis() + ",\n");
+        writer.write("  \"totalMillis\": " + millis(runMetrics.getTotalNanos()) + ",\n");
+        writer.write("  \"pages\": " + runMetrics.getPages() + ",\n");
+        writer.write("  \"outputProfile\": " + string(runMetrics.getOutputProfile()) + ",\n");
+        writer.write("  \"outputSize\": " + runMetrics.getOutputSize() + ",\n");
+        writer.write("  \"phases\": {");
+        String separator = "\n";
+        for (Map.Entry<Phase, Long> phase : runMetrics.getPhaseNanos().entrySet()) {
+            writer.write(separator + "    " + string(phase.getKey().name().toLowerCase(Locale.ROOT)) + ": " + millis(phase.getValue()));
+            separator = ",\n";
+        }
+        writer.write("\n  },\n");
+        writer.write("  \"files\": [");
+        List<FileMetrics> files = runMetrics.getFiles();
+        separator = "\n";
+        for (FileMetrics file : files) {
+            writer.write(separator + "    {\"path\": " + string(file.getPath()) +
+                    ", \"id\": " + string(file.getUniqueId()) +
+                    ", \"cached\": " + file.isCached() +
+                    ", \"fileSize\": " + file.getFileSize() +
+                    ", \"parseMillis\": " + millis(file.getParseNanos()) +
+                    ", \"domNodes\": " + file.getDomNodes() +
+                    ", \"linksRewritten\": " + file.getLinksRewritten() +
+                    ", \"stylesAdded\": " + file.getStylesAdded() +
+                    ", \"danglingLinks\": " + file.getDanglingLinks() +
+                    ", \"pages\": " + file.getPages() + "}");
+            separator = ",\n";
+        }
+        writer.write("\n  ]\n}\n");
+    }
+
+    private static String millis(long nanos) {
+        return nanos < 0 ? "-1" : String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    private static String string(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder result = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    result.append("\\\"");
+                    break;
+                case '\\':
+                    result.append("\\\\");
+                    break;
+                case '\n':
+                    result.append("\\n");
+                    break;
+                case '\r':
+                    result.append("\\r");
+                    break;
+                case '\t':
+                    result.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        result.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        result.append(c);
+                    }
+            }
+        }
+        return result.append('"').toString();
+    }
+}
@@ -0,0 +1,15 @@
+package org.peyto.pdf.java.generator.metrics;
+
+/**
+ * Phases of a conversion run. Per file phases (read, parse, transform, serialize) are summed over all files,
+ * so with several threads their sum could exceed the wall time of the run.
+ */
+public enum Phase {
+    SCAN,
+    READ,
+    PARSE,
+    TRANSFORM,
+    SERIALIZE,
+    PDF_LAYOUT,
+    WRITE
+}
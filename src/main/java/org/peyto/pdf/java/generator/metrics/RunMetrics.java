@@ -0,0 +1,92 @@
+package org.peyto.pdf.java.generator.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Metrics of a whole conversion run, with metrics of every processed file in document order.
+ */
+public class RunMetrics {
+
+    private final String input;
+    private final String output;
+    private final long startedAtMillis;
+    private final Map<Phase, Long> phaseNanos = new EnumMap<>(Phase.class);
+    private final List<FileMetrics> files = new ArrayList<>();
+    private long totalNanos = -1;
+    private int pages = -1;
+    private long outputSize = -1;
+    private String outputProfile;
+
+    public RunMetrics(String input, String output, long startedAtMillis) {
+        this.input = input;
+        this.output = output;
+        this.startedAtMillis = startedAtMillis;
+    }
+
+    public String getInput() {
+        return input;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public long getStartedAtMillis() {
+        return startedAtMillis;
+    }
+
+    public synchronized Map<Phase, Long> getPhaseNanos() {
+        return new EnumMap<>(phaseNanos);
+    }
+
+    synchronized void addPhaseNanos(Phase phase, long nanos) {
+        phaseNanos.merge(phase, nanos, Long::sum);
+    }
+
+    public synchronized List<FileMetrics> getFiles() {
+        return Collections.unmodifiableList(new ArrayList<>(files));
+    }
+
+    synchronized void addFile(FileMetrics fileMetrics) {
+        files.add(fileMetrics);
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    void setTotalNanos(long totalNanos) {
+        this.totalNanos = totalNanos;
+    }
+
+    public int getPages() {
+        return pages;
+    }
+
+    void setPages(int pages) {
+        this.pages = pages;
+    }
+
+    public long getOutputSize() {
+        return outputSize;
+    }
+
+    void setOutputSize(long outputSize) {
+        this.outputSize = outputSize;
+    }
+
+    /**
+     * @return name of the compression settings the output was written with, or null
+     */
+    public String getOutputProfile() {
+        return outputProfile;
+    }
+
+    void setOutputProfile(String outputProfile) {
+        this.outputProfile = outputProfile;
+    }
+}
@@ -0,0 +1,36 @@
+package org.peyto.pdf.java.generator;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversionOptionsTest {
+
+    @Test
+    void copyIsIndependent() {
+        ConversionOptions options = ConversionOptions.parse(new String[]{"exportToHtml", "out", "--outputs=pdf,html",
+                "--include=org/**", "--threads=3", "--code-block-lines=60", "--toc=compact"});
+        ConversionOptions copy = options.copy();
+        copy.setCacheDir(Paths.get("cache"));
+        copy.setShardedPdf(true);
+        copy.addExclude("**/Test*");
+        copy.setOutputs(Collections.singleton(ConversionOptions.Output.PDF));
+
+        assertNull(options.getCacheDir());
+        assertFalse(options.isShardedPdf());
+        assertTrue(options.getExcludes().isEmpty());
+        assertEquals(2, options.getOutputs().size());
+        assertEquals(options.getFolderPath(), copy.getFolderPath());
+        assertEquals(options.getOutputFileName(), copy.getOutputFileName());
+        assertEquals(options.getIncludes(), copy.getIncludes());
+        assertEquals(3, copy.getThreads());
+        assertEquals(60, copy.getCodeBlockLines());
+        assertEquals(ConversionOptions.TableOfContent.COMPACT, copy.getTableOfContent());
+    }
+}
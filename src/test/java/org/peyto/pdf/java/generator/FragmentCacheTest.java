@@ -0,0 +1,87 @@
+package org.peyto.pdf.java.generator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.peyto.pdf.java.generator.entity.JavaProject;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FragmentCacheTest {
+
+    private static final Set<String> EXTENSIONS = Collections.singleton("py");
+    private static final Set<String> JAVA_EXTENSIONS = Collections.singleton("java");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void sameFilesInDifferentFoldersHaveTheirOwnEntries() throws IOException {
+        Path sources = tempDir.resolve("src");
+        write(sources.resolve("a").resolve("util.py"), "x = 1\n");
+        write(sources.resolve("b").resolve("util.py"), "x = 1\n");
+        ConversionOptions options = new ConversionOptions();
+        options.setInputFormat(FileCollector.InputFormat.SOURCE);
+        options.setSourceExtensions(EXTENSIONS);
+        options.setCacheDir(tempDir.resolve("cache"));
+
+        // the first run fills the cache, the second one reads from it
+        for (int run = 1; run <= 2; run++) {
+            String html = transform(sources, options);
+            assertTrue(html.contains("name=\"a-util\""), "a-util is missing in run " + run);
+            assertTrue(html.contains("name=\"b-util\""), "b-util is missing in run " + run);
+        }
+    }
+
+    @Test
+    void addedFileKeepsEntriesOfOthers() throws IOException {
+        Path sources = tempDir.resolve("src");
+        write(sources.resolve("a").resolve("A.java"), "package a;\n\nimport b.B;\n\nclass A {\n}\n");
+        write(sources.resolve("b").resolve("C.java"), "package b;\n\nclass C {\n}\n");
+        Path cacheDir = tempDir.resolve("cache");
+        ConversionOptions options = new ConversionOptions();
+        options.setInputFormat(FileCollector.InputFormat.SOURCE);
+        options.setSourceExtensions(JAVA_EXTENSIONS);
+        options.setCacheDir(cacheDir);
+
+        assertFalse(transform(sources, options).contains("<a href=\"#b-B\">"));
+        Set<Path> entries = cacheEntries(cacheDir);
+        write(sources.resolve("b").resolve("B.java"), "package b;\n\nclass B {\n}\n");
+        // the import resolves to the added class, while the entry of A is still used (entries not used are pruned)
+        assertTrue(transform(sources, options).contains("<a href=\"#b-B\">b.B</a>"));
+        Set<Path> keptEntries = cacheEntries(cacheDir);
+        keptEntries.retainAll(entries);
+        assertTrue(keptEntries.size() >= 2, "entries of A and C should be kept, kept " + keptEntries.size() + " of " + entries.size());
+    }
+
+    private static Set<Path> cacheEntries(Path cacheDir) throws IOException {
+        try (Stream<Path> files = Files.walk(cacheDir)) {
+            return files.filter(Files::isRegularFile).collect(Collectors.toCollection(HashSet::new));
+        }
+    }
+
+    private static String transform(Path sources, ConversionOptions options) throws IOException {
+        JavaProject project = new JavaProject(FileCollector.collectSourceFiles(sources.toString(), options.getSourceExtensions()));
+        StringWriter html = new StringWriter();
+        try (OutputDocument outputDocument = HtmlTransformer.processHTMLFiles(project, options)) {
+            outputDocument.writeTo(html);
+        }
+        return html.toString();
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
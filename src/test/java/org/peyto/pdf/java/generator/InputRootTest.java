@@ -0,0 +1,38 @@
+package org.peyto.pdf.java.generator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InputRootTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void folderNamedLikeArchiveIsFolder() throws IOException {
+        Path folder = Files.createDirectory(tempDir.resolve("exportToHtml.zip"));
+
+        assertFalse(InputRoot.isArchive(folder.toString()));
+        try (InputRoot inputRoot = InputRoot.open(folder.toString())) {
+            assertEquals(folder, inputRoot.getFolder());
+            assertEquals("exportToHtml.zip", inputRoot.getName());
+        }
+        ConversionOptions options = ConversionOptions.parse(new String[]{folder.toString(), "--watch"});
+        assertTrue(options.isWatch());
+    }
+
+    @Test
+    void archiveIsRecognizedByExtension() {
+        assertTrue(InputRoot.isArchive(tempDir.resolve("exportToHtml.zip").toString()));
+        assertTrue(InputRoot.isArchive(tempDir.resolve("exportToHtml.jar") + "!/exportToHtml"));
+        assertFalse(InputRoot.isArchive(tempDir.resolve("exportToHtml").toString()));
+    }
+}
@@ -0,0 +1,64 @@
+package org.peyto.pdf.java.generator;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class OrderedPipelineTest {
+
+    private static final List<Integer> ITEMS = Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8);
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @Test
+    void consumesResultsInOrder() {
+        List<Integer> consumed = new ArrayList<>();
+        new OrderedPipeline<Integer, Integer, Integer>(item -> item * 10, (item, content) -> content + 1, 3, 2)
+                .run(ITEMS, (item, result) -> consumed.add(result));
+        assertEquals(Arrays.asList(11, 21, 31, 41, 51, 61, 71, 81), consumed);
+    }
+
+    @Test
+    void processorErrorEndsRun() {
+        List<Integer> consumed = new ArrayList<>();
+        OrderedPipeline<Integer, Integer, Integer> pipeline = new OrderedPipeline<>(item -> item, (item, content) -> {
+            if (item == 3) {
+                throw new AssertionError("item 3");
+            }
+            return content;
+        }, 2, 4);
+        AssertionError error = assertTimeoutPreemptively(TIMEOUT,
+                () -> assertThrows(AssertionError.class, () -> pipeline.run(ITEMS, (item, result) -> consumed.add(result))));
+        assertEquals("item 3", error.getMessage());
+        assertEquals(Arrays.asList(1, 2), consumed);
+    }
+
+    @Test
+    void readerErrorEndsRun() {
+        OrderedPipeline<Integer, Integer, Integer> pipeline = new OrderedPipeline<>(item -> {
+            if (item == 5) {
+                throw new StackOverflowError();
+            }
+            return item;
+        }, (item, content) -> content, 2, 4);
+        assertTimeoutPreemptively(TIMEOUT, () -> assertThrows(StackOverflowError.class, () -> pipeline.run(ITEMS, (item, result) -> {
+        })));
+    }
+
+    @Test
+    void processorExceptionIsRethrown() {
+        OrderedPipeline<Integer, Integer, Integer> pipeline = new OrderedPipeline<>(item -> item, (item, content) -> {
+            throw new IllegalStateException("broken " + item);
+        }, 1, 1);
+        IllegalStateException e = assertTimeoutPreemptively(TIMEOUT,
+                () -> assertThrows(IllegalStateException.class, () -> pipeline.run(ITEMS, (item, result) -> {
+                })));
+        assertEquals("broken 1", e.getMessage());
+    }
+}
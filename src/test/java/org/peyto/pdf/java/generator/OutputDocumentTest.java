@@ -0,0 +1,37 @@
+package org.peyto.pdf.java.generator;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutputDocumentTest {
+
+    @Test
+    void packageDocumentKeepsLinksInsideItsSection() throws IOException {
+        try (OutputDocument document = new OutputDocument()) {
+            document.addPackageFragment("<a name=\"p\">p</a> <a href=\"#p-a\">a</a> <a href=\"#p-b\">b</a>", "p", "p");
+            document.addPackageFragment("<a name=\"p-a\" href=\"#p\">p</a>.a <a href=\"#p-a-A\">A</a>", "p-a", "p.a");
+            document.addPackageFragment("<a name=\"p-b\" href=\"#p\">p</a>.b <a href=\"#p-b-B\">B</a>", "p-b", "p.b");
+            document.addClassFragment("<a name=\"p-a-A\">A</a> <a href=\"#p-a\">p.a</a> <a href=\"#p-b-B\">B</a>", "p-a-A", "p.a");
+            document.addClassFragment("<a name=\"p-b-B\">B</a> <a href=\"#p-b\">p.b</a>", "p-b-B", "p.b");
+
+            String html = html(document.packageDocument("p.a"));
+            assertTrue(html.contains("<a name=\"p-a\">p</a>.a <a href=\"#p-a-A\">A</a>"), html);
+            assertTrue(html.contains("<a name=\"p-a-A\">A</a> <a href=\"#p-a\">p.a</a> B"), html);
+            assertFalse(html.contains("p-b"), html);
+
+            // parts of the whole document keep all links
+            assertTrue(html(document.section("p.a")).contains("<a href=\"#p-b-B\">B</a>"));
+        }
+    }
+
+    private static String html(OutputDocument document) throws IOException {
+        StringWriter html = new StringWriter();
+        document.writeTo(html);
+        return html.toString();
+    }
+}